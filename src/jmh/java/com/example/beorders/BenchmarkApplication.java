@@ -0,0 +1,73 @@
+package com.example.beorders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Starts the application for the benchmarks and fills BE_ORDER with generated orders.
+ * <p>
+ * The orders are generated, not random, so that every run of every version reads
+ * the same data: order 'id' belongs to {@code owner(id)} and has {@code product(id)}.
+ */
+final class BenchmarkApplication {
+	static final String[] OWNERS = { "Alice", "Cathy", "Admin", "Boris", "Dave", "Erin", "Frank", "Grace" };
+	static final String[] PRODUCTS = { "Food", "Golden Ring", "Ring", "Motorbike", "Dogfood", "Fork", "Computer", "Lamp", "Bracelet", "Chair", "Table" };
+
+	private static final String INSERT = "INSERT INTO BE_ORDER(AMOUNT, OWNER, PRODUCT, QUANTITY) VALUES (?, ?, ?, ?)";
+	private static final int BATCH_SIZE = 1000;
+
+
+	private BenchmarkApplication() {
+	}
+
+
+	static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+		List<String> allProperties = new ArrayList<>(List.of(
+				"server.port=0",
+				"spring.main.banner-mode=off",
+				"logging.level.root=WARN"));
+		allProperties.addAll(List.of(properties));
+
+		return new SpringApplicationBuilder(BeordersApplication.class)
+				.web(webApplicationType)
+				.properties(allProperties.toArray(String[]::new))
+				.run();
+	}
+
+
+	/** Inserts 'rows' orders: the table is empty at start up, so their ids go from 1 to 'rows'. */
+	static void seed(ConfigurableApplicationContext context, int rows) {
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+		for (long id = 1; id <= rows; id++) {
+			batch.add(new Object[] { amount(id), owner(id), product(id), (int) (id % 10) + 1 });
+			if (batch.size() == BATCH_SIZE) {
+				jdbcTemplate.batchUpdate(INSERT, batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			jdbcTemplate.batchUpdate(INSERT, batch);
+		}
+	}
+
+
+	static String owner(long id) {
+		return OWNERS[(int) ((id - 1) % OWNERS.length)];
+	}
+
+
+	static String product(long id) {
+		return PRODUCTS[(int) ((id - 1) % PRODUCTS.length)];
+	}
+
+
+	static double amount(long id) {
+		return (id * 7919 % 100_000) / 100.0;
+	}
+}
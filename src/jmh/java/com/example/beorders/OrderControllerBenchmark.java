@@ -0,0 +1,135 @@
+package com.example.beorders;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * The controller methods called through MockMvc, with the security filters but
+ * without the network and without BCrypt (the users are already authenticated),
+ * against a database seeded with 'rows' orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderControllerBenchmark {
+	private static final RequestPostProcessor ALICE = user("Alice").roles(Role.ORDER_OWNER.name());
+	private static final RequestPostProcessor ADMIN = user("Admin").roles(Role.ADMIN.name());
+
+	@Param({ "10000" })
+	public int rows;
+
+	@Param({ "true", "false" })
+	public boolean responseCache;
+
+	private ConfigurableApplicationContext context;
+	private MockMvc mockMvc;
+	private long aliceOrderCount;
+
+
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start(WebApplicationType.SERVLET, "beorders.cache.order-responses.enabled=" + responseCache);
+		BenchmarkApplication.seed(context, rows);
+		mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+				.apply(springSecurity())
+				.build();
+		aliceOrderCount = rows / BenchmarkApplication.OWNERS.length;
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+
+	@Benchmark
+	public MvcResult findById() throws Exception {
+		return mockMvc.perform(get("/v1/orders/{id}", randomAliceOrderId()).with(ALICE)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findByIdAsAdmin() throws Exception {
+		return mockMvc.perform(get("/v1/admin/orders/{id}", ThreadLocalRandom.current().nextLong(1, rows + 1)).with(ADMIN)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findAll() throws Exception {
+		return mockMvc.perform(get("/v1/orders").with(ALICE)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findAllByProductType() throws Exception {
+		return mockMvc.perform(get("/v1/orders").param("productType", "dogfood").with(ALICE)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findAllWithACursor() throws Exception {
+		return mockMvc.perform(get("/v1/orders").param("after", "").with(ALICE)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findAllWithTotal() throws Exception {
+		return mockMvc.perform(get("/v1/orders").param("withTotal", "true").with(ALICE)).andReturn();
+	}
+
+
+	@Benchmark
+	public MvcResult findAllAsAdmin() throws Exception {
+		return mockMvc.perform(get("/v1/admin/orders").with(ADMIN)).andReturn();
+	}
+
+
+	// writes the same values again: the table does not change, but the cached response is evicted
+	@Benchmark
+	public MvcResult putOrder() throws Exception {
+		long id = randomAliceOrderId();
+		String body = """
+				{"amount": %s, "product": "%s", "quantity": %d}
+				""".formatted(BenchmarkApplication.amount(id), BenchmarkApplication.product(id), (int) (id % 10) + 1);
+		return mockMvc.perform(put("/v1/orders/{id}", id)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(body)
+				.with(ALICE)).andReturn();
+	}
+
+
+	// Alice owns the orders 1, 1 + OWNERS.length, 1 + 2 * OWNERS.length, ...
+	private long randomAliceOrderId() {
+		return 1 + ThreadLocalRandom.current().nextLong(aliceOrderCount) * BenchmarkApplication.OWNERS.length;
+	}
+}
@@ -0,0 +1,92 @@
+package com.example.beorders;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.example.beorders.orders.Order;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * (De)serialization of the same single order and list of orders as OrderJsonTest,
+ * with an ObjectMapper configured the way Spring Boot configures the one of the app.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderJsonBenchmark {
+	private static final String ORDER_JSON = """
+			{
+				"id": 100,
+				"amount": 123.00,
+				"owner": "Alice",
+				"product": "Food",
+				"quantity": 1
+			}
+			""";
+	private static final String ORDERS_JSON = """
+			[
+				{"id":  99, "amount":  123.99, "owner": "Alice", "product": "Ring",      "quantity":1},
+				{"id": 100, "amount": 1100.99, "owner": "Alice", "product": "Food",      "quantity":1},
+				{"id": 200, "amount": 1200.99, "owner": "Alice", "product": "Motorbike", "quantity":1},
+				{"id": 300, "amount": 1300.99, "owner": "Alice", "product": "Dogfood",   "quantity":1},
+				{"id": 400, "amount": 1400.99, "owner": "Alice", "product": "Fork",      "quantity":1}
+			]
+			""";
+
+	private ObjectMapper objectMapper;
+	private Order order;
+	private Order[] orders;
+
+
+	@Setup
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		order = new Order(100L, 123.00, "Alice", "Food", 1, null);
+		orders = new Order[] {
+				new Order( 99L,  123.99, "Alice", "Ring",      1, null),
+				new Order(100L, 1100.99, "Alice", "Food",      1, null),
+				new Order(200L, 1200.99, "Alice", "Motorbike", 1, null),
+				new Order(300L, 1300.99, "Alice", "Dogfood",   1, null),
+				new Order(400L, 1400.99, "Alice", "Fork",      1, null)
+		};
+	}
+
+
+	@Benchmark
+	public byte[] serializeOrder() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(order);
+	}
+
+
+	@Benchmark
+	public byte[] serializeOrders() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(orders);
+	}
+
+
+	@Benchmark
+	public Order deserializeOrder() throws JsonProcessingException {
+		return objectMapper.readValue(ORDER_JSON, Order.class);
+	}
+
+
+	@Benchmark
+	public Order[] deserializeOrders() throws JsonProcessingException {
+		return objectMapper.readValue(ORDERS_JSON, Order[].class);
+	}
+}
@@ -0,0 +1,149 @@
+package com.example.beorders;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import com.example.beorders.orders.Order;
+import com.example.beorders.orders.OrderRepository;
+
+/**
+ * Every OrderRepository access path against an H2 database seeded with 'rows' orders.
+ * The single-order lookups pick a different order at each call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderRepositoryBenchmark {
+	private static final int PAGE_SIZE = 20;
+	private static final PageRequest FIRST_PAGE = PageRequest.of(0, PAGE_SIZE, Sort.by(Sort.Direction.ASC, "amount"));
+
+	@Param({ "10000", "100000" })
+	public int rows;
+
+	private ConfigurableApplicationContext context;
+	private OrderRepository orderRepository;
+	private PageRequest deepPage;
+
+
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start(WebApplicationType.NONE);
+		BenchmarkApplication.seed(context, rows);
+		orderRepository = context.getBean(OrderRepository.class);
+		// half way through the orders of one owner
+		deepPage = PageRequest.of(rows / BenchmarkApplication.OWNERS.length / PAGE_SIZE / 2, PAGE_SIZE, Sort.by(Sort.Direction.ASC, "amount"));
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+
+	@Benchmark
+	public Optional<Order> findById() {
+		return orderRepository.findById(randomId());
+	}
+
+
+	@Benchmark
+	public Order findByIdAndOwner() {
+		long id = randomId();
+		return orderRepository.findByIdAndOwner(id, BenchmarkApplication.owner(id));
+	}
+
+
+	@Benchmark
+	public boolean existsByIdAndOwner() {
+		long id = randomId();
+		return orderRepository.existsByIdAndOwner(id, BenchmarkApplication.owner(id));
+	}
+
+
+	@Benchmark
+	public List<Order> findAllBy() {
+		return orderRepository.findAllBy(FIRST_PAGE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByOwner() {
+		return orderRepository.findByOwner("Alice", FIRST_PAGE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByOwnerDeepPage() {
+		return orderRepository.findByOwner("Alice", deepPage);
+	}
+
+
+	@Benchmark
+	public List<Order> findByProductIgnoreCase() {
+		return orderRepository.findByProductIgnoreCase("dogfood", FIRST_PAGE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByOwnerAndProductIgnoreCase() {
+		return orderRepository.findByOwnerAndProductIgnoreCase("Alice", "dogfood", FIRST_PAGE);
+	}
+
+
+	@Benchmark
+	public List<Order> findAllAfter() {
+		return orderRepository.findAllAfter(500.0, 0L, PAGE_SIZE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByOwnerAfter() {
+		return orderRepository.findByOwnerAfter("Alice", 500.0, 0L, PAGE_SIZE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByProductIgnoreCaseAfter() {
+		return orderRepository.findByProductIgnoreCaseAfter("dogfood", 500.0, 0L, PAGE_SIZE);
+	}
+
+
+	@Benchmark
+	public List<Order> findByOwnerAndProductIgnoreCaseAfter() {
+		return orderRepository.findByOwnerAndProductIgnoreCaseAfter("Alice", "dogfood", 500.0, 0L, PAGE_SIZE);
+	}
+
+
+	@Benchmark
+	public long countOrders() {
+		return orderRepository.countOrders("Alice", "dogfood");
+	}
+
+
+	private long randomId() {
+		return ThreadLocalRandom.current().nextLong(1, rows + 1);
+	}
+}
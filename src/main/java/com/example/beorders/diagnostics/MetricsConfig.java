@@ -0,0 +1,23 @@
+package com.example.beorders.diagnostics;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+class MetricsConfig implements WebMvcConfigurer {
+	private final MeterRegistry meterRegistry;
+
+
+	MetricsConfig(MeterRegistry aMeterRegistry) {
+		this.meterRegistry = aMeterRegistry;
+	}
+
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new RequestMetricsInterceptor(meterRegistry)).addPathPatterns("/v1/**");
+	}
+}
@@ -0,0 +1,200 @@
+package com.example.beorders.diagnostics;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Emits an {@link OrderOperationEvent} for every controller call and an {@link OrderQueryEvent}
+ * for every repository call, for Java Flight Recorder.
+ * <p>
+ * The events are begun and ended around each call but only filled in and committed
+ * when a recording wants them ({@code shouldCommit}), so outside of a recording they
+ * cost next to nothing.
+ */
+@Configuration
+class OrderEventsConfig implements WebMvcConfigurer {
+	private static final String EVENT_ATTRIBUTE = OrderOperationEvent.class.getName();
+	private static final String ROWS_ATTRIBUTE = OrderOperationEvent.class.getName() + ".rows";
+
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new OperationEventInterceptor()).addPathPatterns("/v1/**");
+	}
+
+
+	// before the repository is created, so that its proxy gets the advice
+	@Bean
+	static BeanPostProcessor queryEventPostProcessor() {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) {
+				if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+					factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+							(proxyFactory, repositoryInformation) -> proxyFactory.addAdvice(
+									new QueryEventInterceptor(repositoryInformation.getRepositoryInterface().getSimpleName()))));
+				}
+				return bean;
+			}
+		};
+	}
+
+
+	private static class OperationEventInterceptor implements HandlerInterceptor {
+
+		@Override
+		public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+			if (handler instanceof HandlerMethod) {
+				OrderOperationEvent event = new OrderOperationEvent();
+				event.begin();
+				request.setAttribute(EVENT_ATTRIBUTE, event);
+			}
+			return true;
+		}
+
+
+		@Override
+		public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+			if (!(request.getAttribute(EVENT_ATTRIBUTE) instanceof OrderOperationEvent event) || !(handler instanceof HandlerMethod handlerMethod)) {
+				return;
+			}
+			event.end();
+			if (!event.shouldCommit()) {
+				return;
+			}
+			Principal principal = request.getUserPrincipal();
+			event.handler = handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+			event.httpMethod = request.getMethod();
+			event.uri = request.getRequestURI();
+			event.caller = principal == null ? null : principal.getName();
+			event.orderId = orderId(request);
+			event.productType = request.getParameter("productType");
+			event.rows = request.getAttribute(ROWS_ATTRIBUTE) instanceof Integer rows ? rows : -1;
+			event.status = response.getStatus();
+			event.commit();
+		}
+
+
+		private static long orderId(HttpServletRequest request) {
+			if (request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE) instanceof Map<?, ?> variables) {
+				for (Object value : variables.values()) {
+					try {
+						return Long.parseLong(value.toString());
+					} catch (NumberFormatException e) {
+						// not an id
+					}
+				}
+			}
+			return 0;
+		}
+	}
+
+
+	/** Counts the orders in the response body for the {@link OrderOperationEvent} of the request. */
+	@ControllerAdvice
+	static class RowCountAdvice implements ResponseBodyAdvice<Object> {
+
+		@Override
+		public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+			return true;
+		}
+
+
+		@Override
+		public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+				Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+			if (request instanceof ServletServerHttpRequest servletRequest
+					&& servletRequest.getServletRequest().getAttribute(EVENT_ATTRIBUTE) != null) {
+				int rows = switch (body) {
+					case null -> 0;
+					case Collection<?> collection -> collection.size();
+					case Object[] array -> array.length;
+					default -> 1;
+				};
+				servletRequest.getServletRequest().setAttribute(ROWS_ATTRIBUTE, rows);
+			}
+			return body;
+		}
+	}
+
+
+	private record QueryEventInterceptor(String repositoryName) implements MethodInterceptor {
+
+		@Override
+		public Object invoke(MethodInvocation invocation) throws Throwable {
+			OrderQueryEvent event = new OrderQueryEvent();
+			event.begin();
+			Object result = null;
+			boolean failed = true;
+			try {
+				result = invocation.proceed();
+				failed = false;
+				return result;
+			} finally {
+				event.end();
+				if (event.shouldCommit()) {
+					describe(event, invocation.getMethod(), invocation.getArguments());
+					event.rows = failed ? -1 : rows(result);
+					event.failed = failed;
+					event.commit();
+				}
+			}
+		}
+
+
+		// the arguments are recognized by name: the repository methods all call them id, owner and productType
+		private void describe(OrderQueryEvent event, Method method, Object[] arguments) {
+			event.method = repositoryName + "." + method.getName();
+			Parameter[] parameters = method.getParameters();
+			for (int i = 0; i < parameters.length && i < arguments.length; i++) {
+				switch (parameters[i].getName()) {
+					case "id" -> event.orderId = arguments[i] instanceof Number id ? id.longValue() : 0;
+					case "owner" -> event.owner = arguments[i] == null ? null : arguments[i].toString();
+					case "productType" -> event.productType = arguments[i] == null ? null : arguments[i].toString();
+					default -> { }
+				}
+			}
+		}
+
+
+		private static long rows(Object result) {
+			return switch (result) {
+				case null -> 0;
+				case Collection<?> collection -> collection.size();
+				case Iterable<?> iterable -> iterable.spliterator().getExactSizeIfKnown();
+				case Optional<?> optional -> optional.isPresent() ? 1 : 0;
+				case Boolean exists -> exists ? 1 : 0;
+				case Long count -> count;
+				case Integer count -> count;
+				default -> 1;
+			};
+		}
+	}
+}
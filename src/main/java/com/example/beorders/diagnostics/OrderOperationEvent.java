@@ -0,0 +1,44 @@
+package com.example.beorders.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** One call to a method of OrderController or AdminOrderController. */
+@Name(OrderOperationEvent.NAME)
+@Label("Order Operation")
+@Category({ "BE Orders", "Controllers" })
+@Description("A call to an order controller method")
+@StackTrace(false)
+class OrderOperationEvent extends jdk.jfr.Event {
+	static final String NAME = "beorders.OrderOperation";
+
+	@Label("Handler")
+	@Description("Controller and method, e.g. OrderController.findAll")
+	String handler;
+
+	@Label("HTTP Method")
+	String httpMethod;
+
+	@Label("URI")
+	String uri;
+
+	@Label("Caller")
+	String caller;
+
+	@Label("Order Id")
+	@Description("The id in the path, 0 if there is none")
+	long orderId;
+
+	@Label("Product Filter")
+	String productType;
+
+	@Label("Rows Returned")
+	@Description("Orders (or bulk results) in the response body, -1 when it is not known")
+	int rows = -1;
+
+	@Label("Status")
+	int status;
+}
@@ -0,0 +1,38 @@
+package com.example.beorders.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** One call to a method of a repository, OrderRepository first of all. */
+@Name(OrderQueryEvent.NAME)
+@Label("Order Query")
+@Category({ "BE Orders", "Repositories" })
+@Description("A call to a repository method")
+@StackTrace(false)
+class OrderQueryEvent extends jdk.jfr.Event {
+	static final String NAME = "beorders.OrderQuery";
+
+	@Label("Repository Method")
+	@Description("Repository and method, e.g. OrderRepository.findByOwnerAfter")
+	String method;
+
+	@Label("Order Id")
+	@Description("The id argument, 0 if there is none")
+	long orderId;
+
+	@Label("Owner")
+	String owner;
+
+	@Label("Product Filter")
+	String productType;
+
+	@Label("Rows Returned")
+	@Description("Orders returned (1 or 0 for a single order, the count for a count), -1 when it is not known")
+	long rows = -1;
+
+	@Label("Failed")
+	boolean failed;
+}
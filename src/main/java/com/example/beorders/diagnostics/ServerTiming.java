@@ -0,0 +1,137 @@
+package com.example.beorders.diagnostics;
+
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * The time a single request spent in each phase (authentication, database,
+ * JSON), reported in its {@code Server-Timing} header by {@link ServerTimingFilter}.
+ * <p>
+ * The timings of the request being handled are kept in a thread local, so the code
+ * to measure only needs {@link #start()} and {@link #stop(Phase, long)}; when the
+ * request is not timed, both cost one thread local lookup.
+ */
+public final class ServerTiming {
+	public static final long INACTIVE = Long.MIN_VALUE;
+
+	public enum Phase {
+		AUTH("auth", "authentication"),
+		POOL("pool", "waiting for a connection"),
+		DB("db", "statements and fetches"),
+		SERIALIZE("serialize", "JSON writing"),
+		DESERIALIZE("deserialize", "JSON reading");
+
+		private final String metricName;
+		private final String description;
+
+
+		Phase(String aMetricName, String aDescription) {
+			this.metricName = aMetricName;
+			this.description = aDescription;
+		}
+
+
+		public String metricName() {
+			return metricName;
+		}
+	}
+
+	private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+
+	private final long startNanos = System.nanoTime();
+	private final long[] nanos = new long[Phase.values().length];
+	private final int[] counts = new int[Phase.values().length];
+	private long totalNanos = -1;
+
+
+	private ServerTiming() {
+	}
+
+
+	/** Returns the start time to pass to {@link #stop}, or {@link #INACTIVE} if this request is not timed. */
+	public static long start() {
+		return CURRENT.get() == null ? INACTIVE : System.nanoTime();
+	}
+
+
+	public static void stop(Phase phase, long start) {
+		if (start == INACTIVE) {
+			return;
+		}
+		ServerTiming timing = CURRENT.get();
+		if (timing != null) {
+			timing.nanos[phase.ordinal()] += System.nanoTime() - start;
+			timing.counts[phase.ordinal()]++;
+		}
+	}
+
+
+	public static boolean isActive() {
+		return CURRENT.get() != null;
+	}
+
+
+	static ServerTiming begin() {
+		ServerTiming timing = new ServerTiming();
+		CURRENT.set(timing);
+		return timing;
+	}
+
+
+	void end() {
+		totalNanos = System.nanoTime() - startNanos;
+		CURRENT.remove();
+	}
+
+
+	/** e.g. {@code auth;dur=0.12, db;dur=3.40;desc="2 statements and fetches", app;dur=1.10, total;dur=4.62} */
+	String toHeaderValue() {
+		StringJoiner header = new StringJoiner(", ");
+		long measured = 0;
+		for (Phase phase : Phase.values()) {
+			long phaseNanos = nanos[phase.ordinal()];
+			if (counts[phase.ordinal()] > 0) {
+				measured += phaseNanos;
+				header.add("%s;dur=%s;desc=\"%d x %s\"".formatted(
+						phase.metricName, millis(phaseNanos), counts[phase.ordinal()], phase.description));
+			}
+		}
+		// whatever is left: controller code, filters, cache lookups, writing the response
+		header.add("app;dur=" + millis(Math.max(totalNanos - measured, 0)));
+		header.add("total;dur=" + millis(totalNanos));
+		return header.toString();
+	}
+
+
+	/** e.g. {@code total=4.62 auth=0.12 db=3.40} (milliseconds, the phases that did not happen are left out) */
+	String toLogValue() {
+		StringJoiner line = new StringJoiner(" ");
+		line.add("total=" + millis(totalNanos));
+		for (Phase phase : Phase.values()) {
+			if (counts[phase.ordinal()] > 0) {
+				line.add(phase.metricName + "=" + millis(nanos[phase.ordinal()]));
+			}
+		}
+		return line.toString();
+	}
+
+
+	double millis(Phase phase) {
+		return nanos[phase.ordinal()] / 1e6;
+	}
+
+
+	int count(Phase phase) {
+		return counts[phase.ordinal()];
+	}
+
+
+	double totalMillis() {
+		return totalNanos / 1e6;
+	}
+
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+	}
+}
@@ -0,0 +1,54 @@
+package com.example.beorders.diagnostics;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/** Wires the Server-Timing support: the filter, the timed DataSource and the timed JSON converter. */
+@Configuration
+@ConditionalOnProperty(name = "beorders.server-timing.enabled", havingValue = "true", matchIfMissing = true)
+class ServerTimingConfig implements WebMvcConfigurer {
+
+
+	// just before the security filters, so that the authentication is part of the timed request
+	@Bean
+	FilterRegistrationBean<ServerTimingFilter> serverTimingFilter(@Value("${beorders.server-timing.sample-rate:0}") double sampleRate) {
+		FilterRegistrationBean<ServerTimingFilter> registration = new FilterRegistrationBean<>(new ServerTimingFilter(sampleRate));
+		registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+		return registration;
+	}
+
+
+	// with the slow query log, the SlowQueryDataSource times the statements for both: the connections are wrapped once
+	@Bean
+	static BeanPostProcessor timedDataSourcePostProcessor(@Value("${beorders.slow-queries.enabled:false}") boolean slowQueries) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				return bean instanceof DataSource dataSource && !slowQueries
+						&& !(bean instanceof TimedDataSource) && !(bean instanceof SlowQueryDataSource) ?
+						new TimedDataSource(dataSource)
+						: bean;
+			}
+		};
+	}
+
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		converters.replaceAll(converter -> converter instanceof MappingJackson2HttpMessageConverter jackson ?
+				new TimedJacksonConverter(jackson.getObjectMapper())
+				: converter);
+	}
+}
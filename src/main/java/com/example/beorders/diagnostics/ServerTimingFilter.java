@@ -0,0 +1,84 @@
+package com.example.beorders.diagnostics;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Times the requests that ask for it (with an {@code X-Server-Timing: true} header) and a
+ * random sample of the others ({@code beorders.server-timing.sample-rate}), then adds the
+ * {@code Server-Timing} header to the response and logs the same figures on one line.
+ * <p>
+ * The header has to be set before the body is sent, so the body of a timed request is
+ * held back until the request is over. The exports are streamed on purpose and are
+ * never held back: they only get the log line.
+ * It runs before the security filters, so that the authentication is timed too.
+ */
+class ServerTimingFilter extends OncePerRequestFilter {
+	static final String REQUEST_HEADER = "X-Server-Timing";
+	static final String RESPONSE_HEADER = "Server-Timing";
+	private static final Logger logger = LoggerFactory.getLogger(ServerTimingFilter.class);
+
+	private final double sampleRate;
+
+
+	ServerTimingFilter(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		boolean requested = Boolean.parseBoolean(request.getHeader(REQUEST_HEADER));
+		if (!requested && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		boolean streamed = request.getRequestURI().endsWith("/export");
+		HttpServletResponse timedResponse = streamed ? response : new ContentCachingResponseWrapper(response);
+		ServerTiming timing = ServerTiming.begin();
+		try {
+			filterChain.doFilter(request, timedResponse);
+		} finally {
+			timing.end();
+			if (timedResponse instanceof ContentCachingResponseWrapper cachingResponse) {
+				if (!cachingResponse.isCommitted()) {
+					cachingResponse.setHeader(RESPONSE_HEADER, timing.toHeaderValue());
+				}
+				cachingResponse.copyBodyToResponse();
+			}
+			log(request, response, timing);
+		}
+	}
+
+
+	private static void log(HttpServletRequest request, HttpServletResponse response, ServerTiming timing) {
+		if (!logger.isInfoEnabled()) {
+			return;
+		}
+		// the key/values are for structured logging (logging.structured.format.*), the message for the plain one
+		LoggingEventBuilder event = logger.atInfo()
+				.addKeyValue("method", request.getMethod())
+				.addKeyValue("uri", request.getRequestURI())
+				.addKeyValue("status", response.getStatus())
+				.addKeyValue("totalMs", timing.totalMillis());
+		for (ServerTiming.Phase phase : ServerTiming.Phase.values()) {
+			if (timing.count(phase) > 0) {
+				event = event.addKeyValue(phase.metricName() + "Ms", timing.millis(phase));
+			}
+		}
+		event.log("{} {} {} {}", request.getMethod(), request.getRequestURI(), response.getStatus(), timing.toLogValue());
+	}
+}
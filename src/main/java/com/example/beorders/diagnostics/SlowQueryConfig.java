@@ -0,0 +1,46 @@
+package com.example.beorders.diagnostics;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Wires the slow query log: the {@link SlowQueryLog} and the DataSource that feeds it.
+ * Off unless {@code beorders.slow-queries.enabled} is true, as every statement then goes
+ * through a proxy.
+ */
+@Configuration
+@ConditionalOnProperty(name = "beorders.slow-queries.enabled", havingValue = "true")
+class SlowQueryConfig {
+
+
+	@Bean
+	SlowQueryLog slowQueryLog(
+			@Value("${beorders.slow-queries.threshold:100ms}") Duration threshold,
+			@Value("${beorders.slow-queries.top-size:20}") int topSize,
+			@Value("${beorders.slow-queries.redact-parameters:false}") boolean redactParameters,
+			@Value("${beorders.slow-queries.window:1h}") Duration window) {
+		return new SlowQueryLog(threshold, topSize, redactParameters, window);
+	}
+
+
+	// in place of the TimedDataSource of the Server-Timing support, whose phases it feeds as well (see ServerTimingConfig)
+	@Bean
+	static BeanPostProcessor slowQueryDataSourcePostProcessor(ObjectProvider<SlowQueryLog> slowQueryLog) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				return bean instanceof DataSource dataSource && !(bean instanceof SlowQueryDataSource) ?
+						new SlowQueryDataSource(dataSource, slowQueryLog.getObject())
+						: bean;
+			}
+		};
+	}
+}
@@ -0,0 +1,39 @@
+package com.example.beorders.diagnostics;
+
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.beorders.diagnostics.SlowQueryLog.SlowQuery;
+
+
+// the slowest statements seen within the window (or since the last reset), for the admins
+@RestController
+@RequestMapping("/v1/admin/slow-queries")
+@ConditionalOnProperty(name = "beorders.slow-queries.enabled", havingValue = "true")
+class SlowQueryController {
+	private final SlowQueryLog slowQueryLog;
+
+
+	private SlowQueryController(SlowQueryLog aSlowQueryLog) {
+		this.slowQueryLog = aSlowQueryLog;
+	}
+
+
+	@GetMapping
+	private ResponseEntity<List<SlowQuery>> findAll() {
+		return ResponseEntity.ok(slowQueryLog.top());
+	}
+
+
+	@DeleteMapping
+	private ResponseEntity<Void> reset() {
+		slowQueryLog.reset();
+		return ResponseEntity.noContent().build();
+	}
+}
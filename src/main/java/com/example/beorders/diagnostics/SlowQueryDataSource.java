@@ -0,0 +1,226 @@
+package com.example.beorders.diagnostics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.example.beorders.diagnostics.ServerTiming.Phase;
+
+/**
+ * Times every statement and hands the ones slower than the threshold to the
+ * {@link SlowQueryLog}, with their SQL, parameters and row count. It feeds the
+ * {@link Phase#POOL} and {@link Phase#DB} phases of the timed requests too, in place of
+ * {@link TimedDataSource}, so that the statements go through a single proxy.
+ * <p>
+ * The connections are wrapped in proxies that remember the SQL of the prepared statements
+ * and the parameters bound to them, and time {@code execute*}. The result set of a query
+ * is handed back as it is, and its getters cost nothing more, unless {@code executeQuery}
+ * alone was slow or the request is timed: it is then wrapped as well, to count its rows
+ * and add the time of its {@code next} calls, and the query is checked when the result set
+ * (or the statement) is closed. H2 computes the rows of a query in {@code executeQuery},
+ * so the queries that are only slow to fetch, and are missed, are few.
+ */
+class SlowQueryDataSource extends DelegatingDataSource {
+	private final SlowQueryLog slowQueryLog;
+
+
+	SlowQueryDataSource(DataSource aDataSource, SlowQueryLog aSlowQueryLog) {
+		super(aDataSource);
+		this.slowQueryLog = aSlowQueryLog;
+	}
+
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = ServerTiming.start();
+		Connection connection = super.getConnection();
+		ServerTiming.stop(Phase.POOL, start);
+		return proxy(Connection.class, new ConnectionHandler(connection));
+	}
+
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		long start = ServerTiming.start();
+		Connection connection = super.getConnection(username, password);
+		ServerTiming.stop(Phase.POOL, start);
+		return proxy(Connection.class, new ConnectionHandler(connection));
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(SlowQueryDataSource.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+
+	// the DB phase of a timed request
+	private static Object timed(Object target, Method method, Object[] args) throws Throwable {
+		long start = ServerTiming.start();
+		try {
+			return invoke(target, method, args);
+		} finally {
+			ServerTiming.stop(Phase.DB, start);
+		}
+	}
+
+
+	private final class ConnectionHandler implements InvocationHandler {
+		private final Connection connection;
+
+
+		ConnectionHandler(Connection aConnection) {
+			this.connection = aConnection;
+		}
+
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = SlowQueryDataSource.invoke(connection, method, args);
+			if (result instanceof PreparedStatement statement && method.getName().equals("prepareStatement")) {
+				return proxy(PreparedStatement.class, new StatementHandler(statement, connection, (String) args[0]));
+			}
+			if (result instanceof Statement statement && method.getName().equals("createStatement")) {
+				return proxy(Statement.class, new StatementHandler(statement, connection, null));
+			}
+			return result;
+		}
+	}
+
+
+	private final class StatementHandler implements InvocationHandler {
+		private final Statement statement;
+		private final Connection connection;
+		private String sql;
+		private final List<Object> parameters = new ArrayList<>();
+		// the query whose result set is still being read
+		private long pendingNanos = -1;
+		private long pendingRows;
+
+
+		StatementHandler(Statement aStatement, Connection aConnection, String anSql) {
+			this.statement = aStatement;
+			this.connection = aConnection;
+			this.sql = anSql;
+		}
+
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+				bind(index, name.equals("setNull") ? null : args[1]);
+			} else if (name.equals("clearParameters")) {
+				parameters.clear();
+			} else if (name.equals("close")) {
+				finishQuery();
+			}
+			if (!name.startsWith("execute")) {
+				return SlowQueryDataSource.invoke(statement, method, args);
+			}
+
+			if (args != null && args.length > 0 && args[0] instanceof String executedSql) {
+				sql = executedSql;
+			}
+			finishQuery();
+			long start = System.nanoTime();
+			Object result = timed(statement, method, args);
+			long elapsed = System.nanoTime() - start;
+			if (result instanceof ResultSet resultSet) {
+				if (!slowQueryLog.isSlow(elapsed) && !ServerTiming.isActive()) {
+					return resultSet;
+				}
+				// the time and the rows of the fetches are added when the result set is closed
+				pendingNanos = elapsed;
+				pendingRows = 0;
+				return proxy(ResultSet.class, new ResultSetHandler(resultSet, this));
+			}
+			check(elapsed, rows(result));
+			return result;
+		}
+
+
+		private void bind(int index, Object value) {
+			while (parameters.size() < index) {
+				parameters.add(null);
+			}
+			parameters.set(index - 1, value);
+		}
+
+
+		void fetched(long elapsedNanos, boolean hasRow) {
+			pendingNanos += elapsedNanos;
+			if (hasRow) {
+				pendingRows++;
+			}
+		}
+
+
+		void finishQuery() {
+			if (pendingNanos >= 0) {
+				long elapsed = pendingNanos;
+				pendingNanos = -1;
+				check(elapsed, pendingRows);
+			}
+		}
+
+
+		private void check(long elapsedNanos, long rows) {
+			if (sql != null && slowQueryLog.isSlow(elapsedNanos)) {
+				slowQueryLog.record(sql, new ArrayList<>(parameters), rows, elapsedNanos, connection);
+			}
+		}
+
+
+		// an update count, the sum of the counts of a batch, or -1 when it is not known
+		private static long rows(Object result) {
+			return switch (result) {
+				case Integer count -> count;
+				case Long count -> count;
+				case int[] counts -> Arrays.stream(counts).filter(count -> count >= 0).asLongStream().sum();
+				case long[] counts -> Arrays.stream(counts).filter(count -> count >= 0).sum();
+				case null, default -> -1;
+			};
+		}
+	}
+
+
+	private record ResultSetHandler(ResultSet resultSet, StatementHandler statementHandler) implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("next")) {
+				long start = System.nanoTime();
+				Object hasRow = timed(resultSet, method, args);
+				statementHandler.fetched(System.nanoTime() - start, Boolean.TRUE.equals(hasRow));
+				return hasRow;
+			}
+			if (method.getName().equals("close")) {
+				statementHandler.finishQuery();
+			}
+			return SlowQueryDataSource.invoke(resultSet, method, args);
+		}
+	}
+}
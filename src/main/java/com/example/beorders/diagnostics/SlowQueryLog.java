@@ -0,0 +1,158 @@
+package com.example.beorders.diagnostics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the statements that take longer than {@code beorders.slow-queries.threshold}
+ * with their parameters, row count and H2 execution plan, and keeps the
+ * {@code beorders.slow-queries.top-size} slowest distinct statements in memory
+ * (see {@link SlowQueryController}). The list rolls over {@code beorders.slow-queries.window}:
+ * a statement that has not been slow for that long is dropped, so that the statements that
+ * were slow once, while the database warmed up, do not hold their place forever.
+ * <p>
+ * The plan is taken with {@code EXPLAIN}, on the connection that ran the statement and with
+ * the same parameters, the first time a statement is slow and again each time it is slower
+ * than ever: a plan that changes as the data grows shows up. With
+ * {@code beorders.slow-queries.redact-parameters} the parameter values are neither logged nor kept.
+ */
+class SlowQueryLog {
+	private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+	private static final Pattern EXPLAINABLE = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE|WITH)\\b", Pattern.CASE_INSENSITIVE);
+	private static final String REDACTED = "***";
+
+	/** The slowest run of a statement, and how often it was slow. */
+	record SlowQuery(String sql, long count, double maxMillis, double totalMillis, long rows, List<String> parameters, String plan, Instant lastSeen) {
+	}
+
+	private final long thresholdNanos;
+	private final int topSize;
+	private final boolean redactParameters;
+	private final Duration window;
+	// by SQL text, guarded by this
+	private final Map<String, SlowQuery> slowest = new HashMap<>();
+
+
+	SlowQueryLog(Duration threshold, int topSize, boolean redactParameters, Duration window) {
+		if (topSize <= 0 || window.isNegative() || window.isZero()) {
+			throw new IllegalArgumentException("beorders.slow-queries.top-size and window must be positive");
+		}
+		this.thresholdNanos = threshold.toNanos();
+		this.topSize = topSize;
+		this.redactParameters = redactParameters;
+		this.window = window;
+	}
+
+
+	boolean isSlow(long elapsedNanos) {
+		return elapsedNanos >= thresholdNanos;
+	}
+
+
+	/**
+	 * Records a statement that was slow; the connection is the one it ran on, still open,
+	 * and is used to explain the statement.
+	 */
+	void record(String sql, List<Object> parameters, long rows, long elapsedNanos, Connection connection) {
+		double millis = elapsedNanos / 1e6;
+		List<String> shownParameters = parameters.stream()
+				.map(parameter -> redactParameters ? REDACTED : String.valueOf(parameter))
+				.toList();
+
+		String plan = null;
+		if (isSlowest(sql, millis)) {
+			plan = explain(sql, parameters, connection);
+		}
+		synchronized (this) {
+			dropExpired();
+			SlowQuery previous = slowest.get(sql);
+			SlowQuery current = previous == null || millis > previous.maxMillis() ?
+					new SlowQuery(sql, count(previous) + 1, millis, total(previous) + millis, rows, shownParameters,
+							plan != null ? plan : previous == null ? null : previous.plan(), Instant.now())
+					: new SlowQuery(sql, previous.count() + 1, previous.maxMillis(), previous.totalMillis() + millis,
+							previous.rows(), previous.parameters(), previous.plan(), Instant.now());
+			slowest.put(sql, current);
+			if (slowest.size() > topSize) {
+				slowest.values().stream()
+						.min(Comparator.comparingDouble(SlowQuery::maxMillis))
+						.ifPresent(fastest -> slowest.remove(fastest.sql()));
+			}
+		}
+
+		logger.warn("Slow query ({} ms, {} rows): {}\n  parameters: {}{}", String.format(Locale.ROOT, "%.2f", millis), rows, sql,
+				shownParameters, plan == null ? "" : "\n  plan: " + plan);
+	}
+
+
+	/** The statements slow within the window, the slowest first. */
+	synchronized List<SlowQuery> top() {
+		dropExpired();
+		return slowest.values().stream()
+				.sorted(Comparator.comparingDouble(SlowQuery::maxMillis).reversed())
+				.toList();
+	}
+
+
+	synchronized void reset() {
+		slowest.clear();
+	}
+
+
+	// guarded by this
+	private void dropExpired() {
+		Instant oldest = Instant.now().minus(window);
+		slowest.values().removeIf(query -> query.lastSeen().isBefore(oldest));
+	}
+
+
+	private synchronized boolean isSlowest(String sql, double millis) {
+		SlowQuery previous = slowest.get(sql);
+		return previous == null || millis > previous.maxMillis();
+	}
+
+
+	private static long count(SlowQuery previous) {
+		return previous == null ? 0 : previous.count();
+	}
+
+
+	private static double total(SlowQuery previous) {
+		return previous == null ? 0 : previous.totalMillis();
+	}
+
+
+	private static String explain(String sql, List<Object> parameters, Connection connection) {
+		if (!EXPLAINABLE.matcher(sql).find()) {
+			return null;
+		}
+		try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+			for (int i = 0; i < parameters.size(); i++) {
+				explain.setObject(i + 1, parameters.get(i));
+			}
+			List<String> lines = new ArrayList<>();
+			try (ResultSet plan = explain.executeQuery()) {
+				while (plan.next()) {
+					lines.add(plan.getString(1));
+				}
+			}
+			return String.join("\n", lines);
+		} catch (SQLException e) {
+			logger.debug("Cannot explain {}", sql, e);
+			return "(no plan: " + e.getMessage() + ")";
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.example.beorders.diagnostics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.example.beorders.diagnostics.ServerTiming.Phase;
+
+/**
+ * Measures, for the timed requests only, the time spent waiting for a connection
+ * ({@link Phase#POOL}) and the time spent executing statements and fetching their
+ * rows ({@link Phase#DB}).
+ * <p>
+ * The connections handed out while no request is timed are the ones of the pool,
+ * untouched; the others are wrapped in proxies that time {@code execute*} on the
+ * statements and {@code next} on the result sets.
+ */
+class TimedDataSource extends DelegatingDataSource {
+
+
+	TimedDataSource(DataSource aDataSource) {
+		super(aDataSource);
+	}
+
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = ServerTiming.start();
+		Connection connection = super.getConnection();
+		return timed(connection, start);
+	}
+
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		long start = ServerTiming.start();
+		Connection connection = super.getConnection(username, password);
+		return timed(connection, start);
+	}
+
+
+	private static Connection timed(Connection connection, long start) {
+		if (start == ServerTiming.INACTIVE) {
+			return connection;
+		}
+		ServerTiming.stop(Phase.POOL, start);
+		return proxy(Connection.class, connection);
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, T target) {
+		return (T) Proxy.newProxyInstance(TimedDataSource.class.getClassLoader(), new Class<?>[] { type }, new TimingHandler(target));
+	}
+
+
+	private record TimingHandler(Object target) implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			boolean timed = target instanceof Statement && method.getName().startsWith("execute")
+					|| target instanceof ResultSet && method.getName().equals("next");
+			long start = timed ? ServerTiming.start() : ServerTiming.INACTIVE;
+
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				ServerTiming.stop(Phase.DB, start);
+			}
+			return wrap(method, result);
+		}
+
+
+		// the statements and result sets created through a timed connection are timed as well
+		private static Object wrap(Method method, Object result) {
+			if (result instanceof CallableStatement statement && method.getReturnType() == CallableStatement.class) {
+				return proxy(CallableStatement.class, statement);
+			}
+			if (result instanceof PreparedStatement statement && method.getReturnType() == PreparedStatement.class) {
+				return proxy(PreparedStatement.class, statement);
+			}
+			if (result instanceof Statement statement && method.getReturnType() == Statement.class) {
+				return proxy(Statement.class, statement);
+			}
+			if (result instanceof ResultSet resultSet && method.getReturnType() == ResultSet.class) {
+				return proxy(ResultSet.class, resultSet);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.example.beorders.diagnostics;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.example.beorders.diagnostics.ServerTiming.Phase;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** The JSON converter of the app, timing what it reads and writes for {@link ServerTiming}. */
+class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+
+
+	TimedJacksonConverter(ObjectMapper anObjectMapper) {
+		super(anObjectMapper);
+	}
+
+
+	@Override
+	public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+			throws IOException, HttpMessageNotReadableException {
+		long start = ServerTiming.start();
+		try {
+			return super.read(type, contextClass, inputMessage);
+		} finally {
+			ServerTiming.stop(Phase.DESERIALIZE, start);
+		}
+	}
+
+
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		long start = ServerTiming.start();
+		try {
+			super.writeInternal(object, type, outputMessage);
+		} finally {
+			ServerTiming.stop(Phase.SERIALIZE, start);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.example.beorders.diagnostics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Reports the virtual threads that stay pinned to their carrier thread, typically
+ * because they block (on JDBC I/O, on a lock) inside a synchronized block or method:
+ * while pinned, a virtual thread holds one of the few carrier threads and the others
+ * have to wait for it.
+ * <p>
+ * It listens to the {@code jdk.VirtualThreadPinned} JFR events longer than
+ * {@code beorders.threads.pinning-diagnostics.threshold} and logs the stack of each
+ * distinct pinning place once, then just counts how often it happens again.
+ */
+@Component
+@ConditionalOnProperty(name = "beorders.threads.pinning-diagnostics.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor implements InitializingBean, DisposableBean, MeterBinder {
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+	private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+	private static final int LOGGED_FRAMES = 15;
+
+	private final Duration threshold;
+	private final Map<String, LongAdder> pinningPlaces = new ConcurrentHashMap<>();
+	private final LongAdder pinnedCount = new LongAdder();
+	private final LongAdder pinnedNanos = new LongAdder();
+	private RecordingStream recordingStream;
+
+
+	VirtualThreadPinningMonitor(@Value("${beorders.threads.pinning-diagnostics.threshold:20ms}") Duration threshold) {
+		this.threshold = threshold;
+	}
+
+
+	@Override
+	public void afterPropertiesSet() {
+		recordingStream = new RecordingStream();
+		recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+		recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+		recordingStream.startAsync();
+	}
+
+
+	@Override
+	public void destroy() {
+		recordingStream.close();
+		if (pinnedCount.sum() > 0) {
+			logger.info("Virtual threads were pinned {} times for {} ms in all, at {} places: {}",
+					pinnedCount.sum(), Duration.ofNanos(pinnedNanos.sum()).toMillis(), pinningPlaces.size(), placeCounts());
+		}
+	}
+
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("beorders.threads.virtual.pinned", this, VirtualThreadPinningMonitor::pinnedCount)
+				.description("The number of times a virtual thread was pinned longer than the threshold")
+				.register(registry);
+		FunctionCounter.builder("beorders.threads.virtual.pinned.time", this, monitor -> monitor.pinnedTime().toNanos() / 1e9)
+				.baseUnit("seconds")
+				.description("The time virtual threads spent pinned longer than the threshold")
+				.register(registry);
+	}
+
+
+	public long pinnedCount() {
+		return pinnedCount.sum();
+	}
+
+
+	public Duration pinnedTime() {
+		return Duration.ofNanos(pinnedNanos.sum());
+	}
+
+
+	/** How many times the virtual threads have been pinned, by top frame of the pinned stack. */
+	public Map<String, Long> placeCounts() {
+		return pinningPlaces.entrySet().stream()
+				.collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+	}
+
+
+	private void onPinned(RecordedEvent event) {
+		pinnedCount.increment();
+		pinnedNanos.add(event.getDuration().toNanos());
+
+		List<RecordedFrame> frames = event.getStackTrace() == null ? List.of() : event.getStackTrace().getFrames();
+		String place = frames.isEmpty() ? "unknown" : frame(frames.getFirst());
+
+		LongAdder count = pinningPlaces.computeIfAbsent(place, key -> new LongAdder());
+		count.increment();
+		if (count.sum() == 1) {
+			String stack = frames.stream()
+					.limit(LOGGED_FRAMES)
+					.map(frame -> "\n\tat " + frame(frame))
+					.collect(Collectors.joining());
+			logger.warn("Virtual thread {} pinned for {} ms (reported once per place):{}",
+					event.getThread() == null ? "?" : event.getThread().getJavaName(),
+					event.getDuration().toMillis(),
+					stack);
+		}
+	}
+
+
+	private static String frame(RecordedFrame frame) {
+		return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+	}
+}
@@ -1,8 +1,13 @@
 package com.example.beorders.orders;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.relational.core.mapping.Table;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// 'version' is bumped by every update (see OrderETags): it is null in the orders sent by the clients
 @Table(name = "BE_ORDER")
-public record Order(@Id Long id, Double amount, String owner, String product, Integer quantity) {
+public record Order(@Id Long id, Double amount, String owner, String product, Integer quantity,
+		@Version @JsonInclude(JsonInclude.Include.NON_NULL) Long version) {
 }
@@ -0,0 +1,201 @@
+package com.example.beorders.orders;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * Executes a list of create/update/delete operations in one transaction, sending
+ * them to the database as JDBC batches instead of one statement per order.
+ * <p>
+ * Consecutive operations of the same kind are batched together (in batches of at most
+ * {@code beorders.bulk.batch-size} statements), so the operations are still applied
+ * in the order they were given.
+ */
+@Component
+public class OrderBulkWriter {
+	private static final String INSERT =
+			"INSERT INTO BE_ORDER(AMOUNT, OWNER, PRODUCT, QUANTITY) VALUES (?, ?, ?, ?)";
+	private static final String UPDATE =
+			"UPDATE BE_ORDER SET AMOUNT = ?, OWNER = COALESCE(?, OWNER), PRODUCT = ?, QUANTITY = ?, VERSION = VERSION + 1 WHERE ID = ?";
+	private static final String DELETE =
+			"DELETE FROM BE_ORDER WHERE ID = ?";
+	private static final String AND_OWNER = " AND OWNER = ?";
+
+	public enum OperationType { CREATE, UPDATE, DELETE }
+
+	/** One entry of a bulk request: 'id' is required by update and delete, 'order' by create and update. */
+	public record Operation(
+			@JsonFormat(with = JsonFormat.Feature.ACCEPT_CASE_INSENSITIVE_VALUES) OperationType op,
+			Long id,
+			Order order) {
+	}
+
+	/** The outcome of the operation at 'index', with the HTTP status it would have had on its own. */
+	public record Result(int index, OperationType op, Long id, int status, String error) {
+	}
+
+	/**
+	 * Who owns what: creates without an owner get 'defaultOwner', updates and deletes only
+	 * touch orders of 'requiredOwner' (any order if null) and updates without an owner
+	 * either keep the current one or switch to 'defaultOwner'.
+	 */
+	public record OwnerRules(String defaultOwner, String requiredOwner, boolean keepOwnerOnUpdate) {
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final int batchSize;
+	private final int maxOperations;
+
+
+	OrderBulkWriter(
+			JdbcTemplate aJdbcTemplate,
+			@Value("${beorders.bulk.batch-size:1000}") int batchSize,
+			@Value("${beorders.bulk.max-operations:50000}") int maxOperations) {
+		this.jdbcTemplate = aJdbcTemplate;
+		this.batchSize = batchSize;
+		this.maxOperations = maxOperations;
+	}
+
+
+	public int maxOperations() {
+		return maxOperations;
+	}
+
+
+	@Transactional
+	public List<Result> execute(List<Operation> operations, OwnerRules rules) {
+		Result[] results = new Result[operations.size()];
+
+		// invalid operations are answered straight away, the others are grouped in runs of the same type
+		List<Integer> run = new ArrayList<>();
+		OperationType runType = null;
+		for (int i = 0; i < operations.size(); i++) {
+			Operation operation = operations.get(i);
+			String error = validate(operation);
+			if (error != null) {
+				OperationType type = operation == null ? null : operation.op();
+				Long id = operation == null ? null : operation.id();
+				results[i] = new Result(i, type, id, HttpStatus.BAD_REQUEST.value(), error);
+				continue;
+			}
+			if (operation.op() != runType || run.size() == batchSize) {
+				executeRun(runType, run, operations, rules, results);
+				run.clear();
+				runType = operation.op();
+			}
+			run.add(i);
+		}
+		executeRun(runType, run, operations, rules, results);
+
+		return Arrays.asList(results);
+	}
+
+
+	private void executeRun(OperationType type, List<Integer> run, List<Operation> operations, OwnerRules rules, Result[] results) {
+		if (run.isEmpty()) {
+			return;
+		}
+		List<Operation> batch = run.stream().map(operations::get).toList();
+		switch (type) {
+			case CREATE -> insert(batch, run, rules, results);
+			case UPDATE -> update(batch, run, rules, results);
+			case DELETE -> delete(batch, run, rules, results);
+		}
+	}
+
+
+	private void insert(List<Operation> batch, List<Integer> indexes, OwnerRules rules, Result[] results) {
+		GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+		jdbcTemplate.batchUpdate(
+				connection -> connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS),
+				new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement statement, int i) throws SQLException {
+						Order order = batch.get(i).order();
+						statement.setObject(1, order.amount());
+						statement.setString(2, Strings.isEmpty(order.owner()) ? rules.defaultOwner() : order.owner());
+						statement.setString(3, order.product());
+						statement.setObject(4, order.quantity());
+					}
+
+					@Override
+					public int getBatchSize() {
+						return batch.size();
+					}
+				},
+				keyHolder);
+
+		List<Map<String, Object>> keys = keyHolder.getKeyList();
+		for (int i = 0; i < batch.size(); i++) {
+			Long id = ((Number) keys.get(i).values().iterator().next()).longValue();
+			results[indexes.get(i)] = new Result(indexes.get(i), OperationType.CREATE, id, HttpStatus.CREATED.value(), null);
+		}
+	}
+
+
+	private void update(List<Operation> batch, List<Integer> indexes, OwnerRules rules, Result[] results) {
+		String sql = rules.requiredOwner() == null ? UPDATE : UPDATE + AND_OWNER;
+		List<Object[]> arguments = batch.stream().map(operation -> {
+			Order order = operation.order();
+			String newOwner = !Strings.isEmpty(order.owner()) ? order.owner()
+					: rules.keepOwnerOnUpdate() ? null : rules.defaultOwner();
+			return rules.requiredOwner() == null ?
+					new Object[] { order.amount(), newOwner, order.product(), order.quantity(), operation.id() }
+					: new Object[] { order.amount(), newOwner, order.product(), order.quantity(), operation.id(), rules.requiredOwner() };
+		}).toList();
+
+		collect(OperationType.UPDATE, jdbcTemplate.batchUpdate(sql, arguments), batch, indexes, results);
+	}
+
+
+	private void delete(List<Operation> batch, List<Integer> indexes, OwnerRules rules, Result[] results) {
+		String sql = rules.requiredOwner() == null ? DELETE : DELETE + AND_OWNER;
+		List<Object[]> arguments = batch.stream().map(operation -> rules.requiredOwner() == null ?
+				new Object[] { operation.id() }
+				: new Object[] { operation.id(), rules.requiredOwner() }).toList();
+
+		collect(OperationType.DELETE, jdbcTemplate.batchUpdate(sql, arguments), batch, indexes, results);
+	}
+
+
+	// no row affected: the order does not exist or it belongs to someone else, just like PUT/DELETE answer
+	private void collect(OperationType type, int[] counts, List<Operation> batch, List<Integer> indexes, Result[] results) {
+		for (int i = 0; i < batch.size(); i++) {
+			HttpStatus status = counts[i] == 0 ? HttpStatus.NOT_FOUND : HttpStatus.NO_CONTENT;
+			results[indexes.get(i)] = new Result(indexes.get(i), type, batch.get(i).id(), status.value(), null);
+		}
+	}
+
+
+	private String validate(Operation operation) {
+		if (operation == null || operation.op() == null) {
+			return "'op' must be one of " + Arrays.toString(OperationType.values());
+		}
+		if (operation.op() != OperationType.CREATE && operation.id() == null) {
+			return "'id' is required";
+		}
+		if (operation.op() != OperationType.DELETE) {
+			Order order = operation.order();
+			if (order == null || order.amount() == null || Strings.isBlank(order.product()) || order.quantity() == null) {
+				return "'order' with amount, product and quantity is required";
+			}
+		}
+		return null;
+	}
+}
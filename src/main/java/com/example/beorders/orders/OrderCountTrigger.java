@@ -0,0 +1,108 @@
+package com.example.beorders.orders;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 row trigger on BE_ORDER (see schema.sql) that keeps BE_ORDER_COUNT in step
+ * with every insert, update and delete, whatever statement issued them.
+ * <p>
+ * It runs inside the transaction of the statement that fired it, so the counters
+ * are committed (or rolled back) together with the orders they count.
+ * <p>
+ * The row of a counter is locked until the end of the transaction that changed it, so
+ * each counter is striped over {@link #STRIPES} rows, which the reads sum: a transaction
+ * changes the stripe of the thread it runs on, and the writers on other threads (the
+ * importer, the bulk batches, the requests) mostly change others. A stripe can go below
+ * zero when its orders were counted in another one; only the sum is meaningful.
+ */
+public class OrderCountTrigger implements Trigger {
+	private static final int STRIPES = 16;
+
+	private static final String INCREMENT =
+			"UPDATE BE_ORDER_COUNT SET ROW_COUNT = ROW_COUNT + ? WHERE OWNER = ? AND PRODUCT_KEY = ? AND STRIPE = ?";
+	private static final String INSERT =
+			"INSERT INTO BE_ORDER_COUNT(OWNER, PRODUCT_KEY, STRIPE, ROW_COUNT) VALUES (?, ?, ?, ?)";
+	private static final String DUPLICATE_KEY = "23505";
+
+	private int ownerColumn;
+	private int productKeyColumn;
+
+
+	@Override
+	public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type)
+			throws SQLException {
+		// PRODUCT_KEY is an invisible column, so ask INFORMATION_SCHEMA rather than DatabaseMetaData
+		String select = """
+				SELECT COLUMN_NAME, ORDINAL_POSITION FROM INFORMATION_SCHEMA.COLUMNS
+				WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_NAME IN ('OWNER', 'PRODUCT_KEY')""";
+		try (PreparedStatement statement = conn.prepareStatement(select)) {
+			statement.setString(1, schemaName);
+			statement.setString(2, tableName);
+			try (ResultSet columns = statement.executeQuery()) {
+				while (columns.next()) {
+					int index = columns.getInt("ORDINAL_POSITION") - 1;
+					if (columns.getString("COLUMN_NAME").equals("OWNER")) {
+						ownerColumn = index;
+					} else {
+						productKeyColumn = index;
+					}
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+		if (oldRow != null && newRow != null
+				&& Objects.equals(oldRow[ownerColumn], newRow[ownerColumn])
+				&& Objects.equals(oldRow[productKeyColumn], newRow[productKeyColumn])) {
+			// an update that did not move the order to another counter
+			return;
+		}
+		if (oldRow != null) {
+			add(conn, (String) oldRow[ownerColumn], (String) oldRow[productKeyColumn], -1);
+		}
+		if (newRow != null) {
+			add(conn, (String) newRow[ownerColumn], (String) newRow[productKeyColumn], 1);
+		}
+	}
+
+
+	private void add(Connection conn, String owner, String productKey, long delta) throws SQLException {
+		// the same stripe for every row of a transaction, as long as it stays on one thread
+		int stripe = (int) (Thread.currentThread().threadId() % STRIPES);
+		if (increment(conn, owner, productKey, stripe, delta)) {
+			return;
+		}
+		try (PreparedStatement insert = conn.prepareStatement(INSERT)) {
+			insert.setString(1, owner);
+			insert.setString(2, productKey);
+			insert.setInt(3, stripe);
+			insert.setLong(4, delta);
+			insert.executeUpdate();
+		} catch (SQLException e) {
+			// another transaction created the stripe in the meantime: increment that one
+			if (!DUPLICATE_KEY.equals(e.getSQLState()) || !increment(conn, owner, productKey, stripe, delta)) {
+				throw e;
+			}
+		}
+	}
+
+
+	private boolean increment(Connection conn, String owner, String productKey, int stripe, long delta) throws SQLException {
+		try (PreparedStatement update = conn.prepareStatement(INCREMENT)) {
+			update.setLong(1, delta);
+			update.setString(2, owner);
+			update.setString(3, productKey);
+			update.setInt(4, stripe);
+			return update.executeUpdate() > 0;
+		}
+	}
+}
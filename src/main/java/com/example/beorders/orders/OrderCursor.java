@@ -0,0 +1,65 @@
+package com.example.beorders.orders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Position of an order in the default listing order (amount ASC, id ASC).
+ * <p>
+ * Clients receive it as an opaque token in the {@value #NEXT_CURSOR_HEADER} header
+ * and send it back with the {@code after} query parameter to get the next page:
+ * the repository then seeks straight to that position instead of skipping
+ * OFFSET rows, so every page costs the same no matter how deep it is.
+ */
+public record OrderCursor(Double amount, Long id) {
+
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+	// sorts before any stored order: used when 'after' is given but left blank
+	public static final OrderCursor START = new OrderCursor(-Double.MAX_VALUE, Long.MIN_VALUE);
+
+
+	public static OrderCursor of(Order order) {
+		return new OrderCursor(order.amount(), order.id());
+	}
+
+
+	/**
+	 * Returns the cursor to continue after the given page, or an empty optional
+	 * when the page was not full (i.e. there is nothing left to read).
+	 */
+	public static Optional<OrderCursor> next(List<Order> page, int pageSize) {
+		if (page.isEmpty() || page.size() < pageSize) {
+			return Optional.empty();
+		}
+		return Optional.of(of(page.getLast()));
+	}
+
+
+	public static Optional<OrderCursor> decode(String token) {
+		if (token == null || token.isBlank()) {
+			return Optional.of(START);
+		}
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(':');
+			if (separator < 0) {
+				return Optional.empty();
+			}
+			Double amount = Double.valueOf(decoded.substring(0, separator));
+			Long id = Long.valueOf(decoded.substring(separator + 1));
+			return Optional.of(new OrderCursor(amount, id));
+		} catch (IllegalArgumentException e) {
+			// covers both bad base64 and NumberFormatException
+			return Optional.empty();
+		}
+	}
+
+
+	public String encode() {
+		String plain = amount + ":" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+	}
+}
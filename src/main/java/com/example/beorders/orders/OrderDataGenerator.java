@@ -0,0 +1,182 @@
+package com.example.beorders.orders;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Fills BE_ORDER with synthetic orders at start up, when the {@code generate-data}
+ * profile is active (the {@code scale-small} and {@code scale-large} profiles turn it on).
+ * <p>
+ * The data is shaped like real orders rather than spread evenly: owners and products
+ * are drawn from Zipf distributions (a few of them have most of the orders) and the
+ * amounts from a log-normal distribution (many small orders, a long tail of big ones).
+ * The first owners are the users of the app (Alice, Cathy, Admin) and the first
+ * products are the ones of the sample data, so they are also the busiest ones.
+ * The same seed always generates the same orders.
+ */
+@Component
+@Profile("generate-data")
+public class OrderDataGenerator implements ApplicationRunner {
+	private static final Logger logger = LoggerFactory.getLogger(OrderDataGenerator.class);
+
+	private static final String INSERT = "INSERT INTO BE_ORDER(AMOUNT, OWNER, PRODUCT, QUANTITY) VALUES (?, ?, ?, ?)";
+	private static final List<String> KNOWN_OWNERS = List.of("Alice", "Cathy", "Admin");
+	private static final List<String> KNOWN_PRODUCTS = List.of(
+			"Food", "Golden Ring", "Ring", "Motorbike", "Dogfood", "Fork", "Computer", "Ring with diamonds");
+
+	public enum AmountDistribution { UNIFORM, LOG_NORMAL }
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final long orders;
+	private final ZipfSampler owners;
+	private final ZipfSampler products;
+	private final AmountDistribution amountDistribution;
+	private final double amountMedian;
+	private final double amountSigma;
+	private final double amountMax;
+	private final long seed;
+	private final int batchSize;
+
+
+	OrderDataGenerator(
+			JdbcTemplate aJdbcTemplate,
+			PlatformTransactionManager aTransactionManager,
+			@Value("${beorders.generator.orders:1000000}") long orders,
+			@Value("${beorders.generator.owners:10000}") int owners,
+			@Value("${beorders.generator.owner-skew:1.1}") double ownerSkew,
+			@Value("${beorders.generator.products:500}") int products,
+			@Value("${beorders.generator.product-skew:0.8}") double productSkew,
+			@Value("${beorders.generator.amount-distribution:LOG_NORMAL}") AmountDistribution amountDistribution,
+			@Value("${beorders.generator.amount-median:80}") double amountMedian,
+			@Value("${beorders.generator.amount-sigma:1.2}") double amountSigma,
+			@Value("${beorders.generator.amount-max:20000}") double amountMax,
+			@Value("${beorders.generator.seed:42}") long seed,
+			@Value("${beorders.generator.batch-size:5000}") int batchSize) {
+		this.jdbcTemplate = aJdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(aTransactionManager);
+		this.orders = orders;
+		this.owners = new ZipfSampler(owners, ownerSkew);
+		this.products = new ZipfSampler(products, productSkew);
+		this.amountDistribution = amountDistribution;
+		this.amountMedian = amountMedian;
+		this.amountSigma = amountSigma;
+		this.amountMax = amountMax;
+		this.seed = seed;
+		this.batchSize = batchSize;
+	}
+
+
+	@Override
+	public void run(ApplicationArguments args) {
+		logger.info("Generating {} orders for {} owners and {} products", orders, owners.size(), products.size());
+		long start = System.nanoTime();
+		SplittableRandom random = new SplittableRandom(seed);
+
+		// one transaction per batch: a commit per row would cost more than the inserts
+		for (long generated = 0; generated < orders; ) {
+			int size = (int) Math.min(batchSize, orders - generated);
+			transactionTemplate.executeWithoutResult(status -> insertBatch(random, size));
+			generated += size;
+			if (generated % (batchSize * 100L) == 0) {
+				logger.info("{} orders generated", generated);
+			}
+		}
+
+		long seconds = Math.max(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), 1);
+		logger.info("{} orders generated in {} s ({} orders/s)", orders, seconds, orders / seconds);
+	}
+
+
+	private void insertBatch(SplittableRandom random, int size) {
+		jdbcTemplate.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement statement, int i) throws SQLException {
+				statement.setDouble(1, amount(random));
+				statement.setString(2, owner(owners.sample(random)));
+				statement.setString(3, product(products.sample(random)));
+				statement.setInt(4, 1 + random.nextInt(10));
+			}
+
+			@Override
+			public int getBatchSize() {
+				return size;
+			}
+		});
+	}
+
+
+	private double amount(SplittableRandom random) {
+		double amount = switch (amountDistribution) {
+			case UNIFORM -> random.nextDouble(0.01, amountMax);
+			case LOG_NORMAL -> amountMedian * Math.exp(amountSigma * gaussian(random));
+		};
+		return Math.round(Math.clamp(amount, 0.01, amountMax) * 100) / 100.0;
+	}
+
+
+	// Box-Muller: SplittableRandom has no nextGaussian of its own
+	private static double gaussian(SplittableRandom random) {
+		return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+
+	static String owner(int rank) {
+		return rank < KNOWN_OWNERS.size() ? KNOWN_OWNERS.get(rank) : "owner-%06d".formatted(rank);
+	}
+
+
+	static String product(int rank) {
+		return rank < KNOWN_PRODUCTS.size() ? KNOWN_PRODUCTS.get(rank) : "Product %d".formatted(rank);
+	}
+
+
+	/**
+	 * Draws ranks from 0 to size - 1, rank k having a probability proportional to
+	 * 1 / (k + 1)^skew: 0 is uniform, 1 is the classic Zipf law, higher is more skewed.
+	 */
+	static class ZipfSampler {
+		private final double[] cumulative;
+
+
+		ZipfSampler(int size, double skew) {
+			cumulative = new double[size];
+			double sum = 0;
+			for (int k = 0; k < size; k++) {
+				sum += 1 / Math.pow(k + 1, skew);
+				cumulative[k] = sum;
+			}
+			for (int k = 0; k < size; k++) {
+				cumulative[k] /= sum;
+			}
+		}
+
+
+		int size() {
+			return cumulative.length;
+		}
+
+
+		int sample(SplittableRandom random) {
+			int index = Arrays.binarySearch(cumulative, random.nextDouble());
+			// not found: binarySearch returns -(insertion point) - 1, the insertion point is the rank
+			return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.example.beorders.orders;
+
+import java.util.List;
+
+/**
+ * Strong ETags of the order resources, derived from the VERSION column rather than
+ * from the encoded body, so that they cost nothing to compute and a 304 needs no encoding.
+ * <p>
+ * A single order is tagged {@code "<id>.<version>"}; a list of orders with a hash of the
+ * ids and versions of its orders, in order: the list changes exactly when one of them does,
+ * or when an order enters or leaves it. The total and the next cursor sent with a list are
+ * folded into its tag as well.
+ * <p>
+ * The bodies in the binary formats are other representations of the same orders: their tags
+ * carry the name of the format, as in {@code "<id>.<version>+cbor"}, so that a JSON body is
+ * never revalidated by a CBOR tag or the other way round. If-Match only looks at the version.
+ */
+public final class OrderETags {
+
+	/** The version an If-Match header yields when none of its tags is one of the order: no row has it. */
+	public static final long NO_VERSION = -1;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+
+	private OrderETags() {
+	}
+
+
+	public static String of(Long id, Long version) {
+		return of(id, version, null);
+	}
+
+
+	/** The tag of the order encoded in the given binary format ("cbor", "smile"), or in JSON if it is null. */
+	public static String of(Long id, Long version, String format) {
+		return tag(id + "." + (version == null ? 0 : version), format);
+	}
+
+
+	public static String of(Order order) {
+		return of(order.id(), order.version(), null);
+	}
+
+
+	public static String of(Order order, String format) {
+		return of(order.id(), order.version(), format);
+	}
+
+
+	public static String of(List<Order> orders) {
+		return of(orders, null);
+	}
+
+
+	public static String of(List<Order> orders, String format) {
+		return of(orders, format, null, null);
+	}
+
+
+	/**
+	 * The tag of a list sent with an X-Total-Count header and a next cursor (either null when
+	 * it is not sent): they are part of the response, so a new total or cursor is a new tag.
+	 */
+	public static String of(List<Order> orders, String format, Long total, String nextCursor) {
+		long hash = FNV_OFFSET_BASIS;
+		for (Order order : orders) {
+			hash = mix(hash, order.id() == null ? 0 : order.id());
+			hash = mix(hash, order.version() == null ? 0 : order.version());
+		}
+		if (nextCursor != null) {
+			for (int i = 0; i < nextCursor.length(); i++) {
+				hash = mix(hash, nextCursor.charAt(i));
+			}
+		}
+		String size = total == null ? String.valueOf(orders.size()) : orders.size() + "." + total;
+		return tag(size + (nextCursor == null ? "-" : "~") + Long.toHexString(hash), format);
+	}
+
+
+	/** Whether an If-None-Match header matches the ETag (weak comparison, as RFC 9110 asks for). */
+	public static boolean matches(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			String candidate = tag.trim();
+			if (candidate.equals("*") || stripWeak(candidate).equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * The version of the order an If-Match header requires: null when there is no header or
+	 * it is '*' (any version), {@link #NO_VERSION} when none of its tags is an ETag of this order.
+	 * Weak tags never match (strong comparison).
+	 */
+	public static Long requiredVersion(String ifMatch, Long id) {
+		if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+			return null;
+		}
+		String prefix = "\"" + id + ".";
+		for (String tag : ifMatch.split(",")) {
+			String candidate = tag.trim();
+			if (candidate.startsWith(prefix) && candidate.endsWith("\"") && candidate.length() > prefix.length() + 1) {
+				String version = candidate.substring(prefix.length(), candidate.length() - 1);
+				// the tag of any format will do: they all name the same version
+				int format = version.indexOf('+');
+				try {
+					return Long.parseLong(format < 0 ? version : version.substring(0, format));
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return NO_VERSION;
+	}
+
+
+	private static String tag(String value, String format) {
+		return "\"" + value + (format == null ? "" : "+" + format) + "\"";
+	}
+
+
+	private static String stripWeak(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+
+
+	// FNV-1a over the 8 bytes of the value
+	private static long mix(long hash, long value) {
+		for (int i = 0; i < Long.BYTES; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+}
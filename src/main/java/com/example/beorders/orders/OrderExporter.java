@@ -0,0 +1,179 @@
+package com.example.beorders.orders;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes every order to a {@link Writer} while reading it from a forward-only cursor,
+ * so that the export of the whole table needs the same (small) heap whatever its size.
+ * <p>
+ * The rows are fetched {@code beorders.export.fetch-size} at a time and no
+ * {@link Order} is ever collected in a list. On H2 the query is also run in lazy
+ * mode for the duration of the export, otherwise H2 would build the whole result
+ * before returning the first row.
+ */
+@Component
+public class OrderExporter {
+	private static final String SELECT = "SELECT ID, AMOUNT, OWNER, PRODUCT, QUANTITY FROM BE_ORDER ORDER BY ID";
+	private static final String CSV_HEADER = "id,amount,owner,product,quantity";
+
+	public enum Format {
+		NDJSON("application/x-ndjson", "ndjson"),
+		CSV("text/csv", "csv");
+
+		private final String contentType;
+		private final String extension;
+
+
+		Format(String aContentType, String anExtension) {
+			this.contentType = aContentType;
+			this.extension = anExtension;
+		}
+
+
+		public String contentType() {
+			return contentType;
+		}
+
+
+		public String extension() {
+			return extension;
+		}
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ObjectMapper objectMapper;
+	private final int fetchSize;
+
+
+	OrderExporter(
+			JdbcTemplate aJdbcTemplate,
+			ObjectMapper anObjectMapper,
+			@Value("${beorders.export.fetch-size:1000}") int fetchSize) {
+		this.jdbcTemplate = aJdbcTemplate;
+		this.objectMapper = anObjectMapper;
+		this.fetchSize = fetchSize;
+	}
+
+
+	/**
+	 * Writes all the orders, sorted by id, and returns how many were written.
+	 * The writer is flushed but not closed.
+	 */
+	public long export(Format format, Writer writer) {
+		return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+			boolean lazy = isH2(connection);
+			if (lazy) {
+				setLazyQueryExecution(connection, true);
+			}
+			try (PreparedStatement statement = connection.prepareStatement(SELECT, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				statement.setFetchSize(fetchSize);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return format == Format.CSV ? writeCsv(resultSet, writer) : writeNdjson(resultSet, writer);
+				}
+			} catch (IOException e) {
+				// most likely the client went away: stop reading, there is nobody to answer to
+				throw new UncheckedIOException(e);
+			} finally {
+				if (lazy) {
+					setLazyQueryExecution(connection, false);
+				}
+			}
+		});
+	}
+
+
+	private long writeNdjson(ResultSet resultSet, Writer writer) throws SQLException, IOException {
+		long count = 0;
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			// one object per line: no separator between the root values, the newline is written by hand
+			generator.setRootValueSeparator(null);
+			while (resultSet.next()) {
+				generator.writeStartObject();
+				generator.writeNumberField("id", resultSet.getLong(1));
+				writeNumberField(generator, "amount", resultSet.getObject(2, Double.class));
+				generator.writeStringField("owner", resultSet.getString(3));
+				generator.writeStringField("product", resultSet.getString(4));
+				writeNumberField(generator, "quantity", resultSet.getObject(5, Integer.class));
+				generator.writeEndObject();
+				generator.writeRaw('\n');
+				count++;
+			}
+			generator.flush();
+		}
+		return count;
+	}
+
+
+	private long writeCsv(ResultSet resultSet, Writer writer) throws SQLException, IOException {
+		long count = 0;
+		writer.write(CSV_HEADER);
+		writer.write("\r\n");
+		while (resultSet.next()) {
+			Double amount = resultSet.getObject(2, Double.class);
+			Integer quantity = resultSet.getObject(5, Integer.class);
+			writer.write(String.valueOf(resultSet.getLong(1)));
+			writer.write(',');
+			writer.write(amount == null ? "" : BigDecimal.valueOf(amount).toPlainString());
+			writer.write(',');
+			writer.write(csvField(resultSet.getString(3)));
+			writer.write(',');
+			writer.write(csvField(resultSet.getString(4)));
+			writer.write(',');
+			writer.write(quantity == null ? "" : quantity.toString());
+			writer.write("\r\n");
+			count++;
+		}
+		writer.flush();
+		return count;
+	}
+
+
+	private static void writeNumberField(JsonGenerator generator, String name, Number value) throws IOException {
+		if (value == null) {
+			generator.writeNullField(name);
+		} else if (value instanceof Double number) {
+			generator.writeNumberField(name, number.doubleValue());
+		} else {
+			generator.writeNumberField(name, value.intValue());
+		}
+	}
+
+
+	// RFC 4180: quote the fields holding a separator, a quote or a line break, and double the quotes
+	private static String csvField(String value) {
+		if (value == null) {
+			return "";
+		}
+		boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+		return quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+	}
+
+
+	private static boolean isH2(Connection connection) throws SQLException {
+		return "H2".equals(connection.getMetaData().getDatabaseProductName());
+	}
+
+
+	private static void setLazyQueryExecution(Connection connection, boolean lazy) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("SET LAZY_QUERY_EXECUTION " + (lazy ? "TRUE" : "FALSE"));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.example.beorders.orders;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * The properties of the orders a client asked for with {@code fields=id,amount}: the
+ * queries select their columns only and the responses carry those properties only.
+ * <p>
+ * ID and VERSION are always read, since the ETags are made of them, and so is AMOUNT in
+ * keyset mode, where the next cursor is: the properties that were not asked for are null
+ * in the orders read, and left out by {@link #project(Order)}.
+ */
+public record OrderFields(List<String> names) {
+
+	// every property of an order, in the order of the record, and the column behind each of them
+	private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+	static {
+		COLUMNS.put("id", "ID");
+		COLUMNS.put("amount", "AMOUNT");
+		COLUMNS.put("owner", "OWNER");
+		COLUMNS.put("product", "PRODUCT");
+		COLUMNS.put("quantity", "QUANTITY");
+		COLUMNS.put("version", "VERSION");
+	}
+
+	public static final OrderFields ALL = new OrderFields(List.copyOf(COLUMNS.keySet()));
+
+
+	public OrderFields {
+		names = List.copyOf(names);
+	}
+
+
+	/**
+	 * The fields named in the request, in the order of the record; all of them when none is given.
+	 *
+	 * @throws IllegalArgumentException if one of them is not a property of an order
+	 */
+	public static OrderFields of(Collection<String> fields) {
+		if (fields == null || fields.stream().allMatch(field -> field == null || field.isBlank())) {
+			return ALL;
+		}
+		for (String field : fields) {
+			if (field != null && !field.isBlank() && !COLUMNS.containsKey(field.trim().toLowerCase(Locale.ROOT))) {
+				throw new IllegalArgumentException("Orders have no field '" + field.trim() + "'");
+			}
+		}
+		List<String> requested = fields.stream()
+				.filter(field -> field != null && !field.isBlank())
+				.map(field -> field.trim().toLowerCase(Locale.ROOT))
+				.toList();
+		List<String> names = COLUMNS.keySet().stream().filter(requested::contains).toList();
+		return names.size() == COLUMNS.size() ? ALL : new OrderFields(names);
+	}
+
+
+	public boolean isAll() {
+		return names.size() == COLUMNS.size();
+	}
+
+
+	/** The SELECT list: the requested columns plus ID, VERSION and, when 'withAmount', AMOUNT. */
+	String columns(boolean withAmount) {
+		return COLUMNS.entrySet().stream()
+				.filter(column -> isRead(column.getKey(), withAmount))
+				.map(Map.Entry::getValue)
+				.collect(Collectors.joining(", "));
+	}
+
+
+	/** Maps the rows selected with {@link #columns(boolean)}: the columns not read stay null. */
+	RowMapper<Order> rowMapper(boolean withAmount) {
+		boolean amount = isRead("amount", withAmount);
+		boolean owner = isRead("owner", withAmount);
+		boolean product = isRead("product", withAmount);
+		boolean quantity = isRead("quantity", withAmount);
+		return (rs, rowNum) -> new Order(
+				rs.getLong("ID"),
+				amount ? rs.getObject("AMOUNT", Double.class) : null,
+				owner ? rs.getString("OWNER") : null,
+				product ? rs.getString("PRODUCT") : null,
+				quantity ? rs.getObject("QUANTITY", Integer.class) : null,
+				rs.getLong("VERSION"));
+	}
+
+
+	/** The requested properties of the order, in the order of the record. */
+	public Map<String, Object> project(Order order) {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		for (String name : names) {
+			properties.put(name, switch (name) {
+				case "id" -> order.id();
+				case "amount" -> order.amount();
+				case "owner" -> order.owner();
+				case "product" -> order.product();
+				case "quantity" -> order.quantity();
+				default -> order.version();
+			});
+		}
+		return properties;
+	}
+
+
+	private boolean isRead(String name, boolean withAmount) {
+		return names.contains(name) || name.equals("id") || name.equals("version") || (withAmount && name.equals("amount"));
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.beorders.orders;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.logging.log4j.util.Strings;
+
+/**
+ * Conditions on the orders of a list request, all of them optional and all of them
+ * evaluated by the database (see {@link OrderQueries#findByFilter(OrderFilter, org.springframework.data.domain.Pageable)}):
+ * amount and quantity ranges (bounds included), sets of products (case insensitive)
+ * and of owners, and a product search. An empty set means "any".
+ * <p>
+ * The product search matches the products that start with, or contain, the term
+ * (case insensitive); its candidates come from the ProductSearchIndex.
+ */
+public record OrderFilter(
+		Double minAmount,
+		Double maxAmount,
+		Integer minQuantity,
+		Integer maxQuantity,
+		List<String> products,
+		List<String> owners,
+		String productSearch,
+		ProductMatch productMatch) {
+
+	/** The most products, and owners, a filter can list. */
+	public static final int MAX_VALUES = 64;
+
+	public enum ProductMatch { PREFIX, CONTAINS }
+
+
+	/**
+	 * Drops the blank and duplicated products and owners, and a blank product search;
+	 * a product search matches the products that contain it unless told otherwise.
+	 *
+	 * @throws IllegalArgumentException if more than {@link #MAX_VALUES} products or owners are given
+	 */
+	public OrderFilter {
+		products = distinct(products, "products");
+		owners = distinct(owners, "owners");
+		productSearch = Strings.isBlank(productSearch) ? null : productSearch.trim();
+		productMatch = productSearch == null ? null : productMatch == null ? ProductMatch.CONTAINS : productMatch;
+	}
+
+
+	public boolean isEmpty() {
+		return minAmount == null && maxAmount == null && minQuantity == null && maxQuantity == null
+				&& products.isEmpty() && owners.isEmpty() && productSearch == null;
+	}
+
+
+	private static List<String> distinct(Collection<String> values, String name) {
+		if (values == null) {
+			return List.of();
+		}
+		List<String> distinctValues = values.stream().filter(Strings::isNotBlank).distinct().toList();
+		if (distinctValues.size() > MAX_VALUES) {
+			throw new IllegalArgumentException("A filter cannot list more than " + MAX_VALUES + " " + name);
+		}
+		return distinctValues;
+	}
+}
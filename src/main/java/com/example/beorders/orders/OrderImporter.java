@@ -0,0 +1,267 @@
+package com.example.beorders.orders;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Creates orders from an NDJSON or CSV upload, reading it one line at a time.
+ * <p>
+ * Valid records are inserted in JDBC batches of {@code beorders.import.batch-size}
+ * rows and committed every {@code beorders.import.commit-interval} rows, so neither
+ * the upload nor one huge transaction has to fit in memory. Invalid records are
+ * skipped and reported with their line number; the ones already committed stay
+ * committed if the upload breaks half way.
+ */
+@Component
+public class OrderImporter {
+	private static final String INSERT =
+			"INSERT INTO BE_ORDER(AMOUNT, OWNER, PRODUCT, QUANTITY) VALUES (?, ?, ?, ?)";
+	private static final List<String> CSV_COLUMNS = List.of("amount", "product", "quantity");
+
+	/** A line that was not imported: 'line' starts from 1 and counts the CSV header too. */
+	public record Rejection(long line, String error) {
+	}
+
+	/** What an import did: only the first {@code max-reported-rejections} rejections are listed. */
+	public record Report(long imported, long rejected, long elapsedMillis, long rowsPerSecond, List<Rejection> rejections) {
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final ObjectMapper objectMapper;
+	private final int batchSize;
+	private final int commitInterval;
+	private final int maxReportedRejections;
+
+
+	OrderImporter(
+			JdbcTemplate aJdbcTemplate,
+			PlatformTransactionManager aTransactionManager,
+			ObjectMapper anObjectMapper,
+			@Value("${beorders.import.batch-size:1000}") int batchSize,
+			@Value("${beorders.import.commit-interval:10000}") int commitInterval,
+			@Value("${beorders.import.max-reported-rejections:100}") int maxReportedRejections) {
+		this.jdbcTemplate = aJdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(aTransactionManager);
+		this.objectMapper = anObjectMapper;
+		this.batchSize = batchSize;
+		this.commitInterval = Math.max(commitInterval, batchSize);
+		this.maxReportedRejections = maxReportedRejections;
+	}
+
+
+	/**
+	 * Imports every record of the reader; orders without an owner get 'defaultOwner'.
+	 * Any id found in the records is ignored, just like POST does.
+	 */
+	public Report importOrders(OrderExporter.Format format, BufferedReader reader, String defaultOwner) {
+		long start = System.nanoTime();
+		Progress progress = new Progress();
+		RecordParser parser = format == OrderExporter.Format.CSV ? new CsvParser() : new NdjsonParser();
+
+		// one transaction per 'commitInterval' rows, the reader simply carries on where the previous one stopped
+		while (!progress.endOfInput) {
+			transactionTemplate.executeWithoutResult(status -> importChunk(reader, parser, defaultOwner, progress));
+		}
+
+		long elapsedNanos = Math.max(System.nanoTime() - start, 1);
+		return new Report(
+				progress.imported,
+				progress.rejected,
+				TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+				progress.imported * TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+				progress.rejections);
+	}
+
+
+	private void importChunk(BufferedReader reader, RecordParser parser, String defaultOwner, Progress progress) {
+		List<Object[]> batch = new ArrayList<>(batchSize);
+		int inChunk = 0;
+		try {
+			while (inChunk < commitInterval) {
+				String line = reader.readLine();
+				if (line == null) {
+					progress.endOfInput = true;
+					break;
+				}
+				progress.line++;
+				if (line.isBlank()) {
+					continue;
+				}
+
+				Order order;
+				try {
+					order = parser.parse(line);
+				} catch (IllegalArgumentException e) {
+					progress.reject(e.getMessage(), maxReportedRejections);
+					continue;
+				}
+				if (order == null) {
+					continue;
+				}
+
+				String owner = Strings.isEmpty(order.owner()) ? defaultOwner : order.owner();
+				batch.add(new Object[] { order.amount(), owner, order.product(), order.quantity() });
+				inChunk++;
+				if (batch.size() == batchSize) {
+					flush(batch, progress);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		flush(batch, progress);
+	}
+
+
+	private void flush(List<Object[]> batch, Progress progress) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		jdbcTemplate.batchUpdate(INSERT, batch);
+		progress.imported += batch.size();
+		batch.clear();
+	}
+
+
+	private static Order validate(Order order) {
+		if (order == null || order.amount() == null || Strings.isBlank(order.product()) || order.quantity() == null) {
+			throw new IllegalArgumentException("amount, product and quantity are required");
+		}
+		if (order.product().length() > 256 || (order.owner() != null && order.owner().length() > 256)) {
+			throw new IllegalArgumentException("owner and product cannot be longer than 256 characters");
+		}
+		return order;
+	}
+
+
+	private static class Progress {
+		private long line;
+		private long imported;
+		private long rejected;
+		private boolean endOfInput;
+		private final List<Rejection> rejections = new ArrayList<>();
+
+
+		private void reject(String error, int maxReportedRejections) {
+			rejected++;
+			if (rejections.size() < maxReportedRejections) {
+				rejections.add(new Rejection(line, error));
+			}
+		}
+	}
+
+
+	private interface RecordParser {
+		/** Returns the order on the line, null if the line holds no order, or throws IllegalArgumentException. */
+		Order parse(String line);
+	}
+
+
+	private class NdjsonParser implements RecordParser {
+		@Override
+		public Order parse(String line) {
+			try {
+				return validate(objectMapper.readValue(line, Order.class));
+			} catch (JsonProcessingException e) {
+				throw new IllegalArgumentException("not a valid order: " + e.getOriginalMessage());
+			}
+		}
+	}
+
+
+	private static class CsvParser implements RecordParser {
+		private Map<String, Integer> columns;
+
+
+		@Override
+		public Order parse(String line) {
+			List<String> fields = split(line);
+
+			// the first line names the columns, in any order
+			if (columns == null) {
+				Map<String, Integer> header = new HashMap<>();
+				for (int i = 0; i < fields.size(); i++) {
+					header.put(fields.get(i).trim().toLowerCase(), i);
+				}
+				if (!header.keySet().containsAll(CSV_COLUMNS)) {
+					throw new IllegalArgumentException("the header must name the columns " + CSV_COLUMNS);
+				}
+				columns = header;
+				return null;
+			}
+
+			try {
+				return validate(new Order(
+						null,
+						number(field(fields, "amount"), Double::valueOf),
+						Strings.trimToNull(field(fields, "owner")),
+						field(fields, "product"),
+						number(field(fields, "quantity"), Integer::valueOf), null));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("amount and quantity must be numbers");
+			}
+		}
+
+
+		private static <T> T number(String value, Function<String, T> parser) {
+			return Strings.isBlank(value) ? null : parser.apply(value.trim());
+		}
+
+
+		private String field(List<String> fields, String column) {
+			Integer index = columns.get(column);
+			return index == null || index >= fields.size() ? null : fields.get(index);
+		}
+
+
+		// RFC 4180 fields, except that a quoted field cannot span several lines
+		private static List<String> split(String line) {
+			List<String> fields = new ArrayList<>();
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quoted) {
+					if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else if (c == '"') {
+						quoted = false;
+					} else {
+						field.append(c);
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else {
+					field.append(c);
+				}
+			}
+			if (quoted) {
+				throw new IllegalArgumentException("unterminated quoted field");
+			}
+			fields.add(field.toString());
+			return fields;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.beorders.orders;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Applies JSON merge patches (RFC 7396) to orders: the patch becomes one UPDATE that
+ * sets only the columns it names, so that a client changing the quantity sends just
+ * the quantity and cannot overwrite a concurrent change of the other columns.
+ * <p>
+ * Every column of an order is required, so a member set to null (which would remove
+ * it) is rejected, as are the members that are not columns; 'id' is accepted as long
+ * as it is the id of the order. Like the full updates, the statement is conditional on
+ * the owner and on the version, and bumps the version.
+ */
+@Component
+public class OrderPatcher {
+	public static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
+	// the members a patch can set, and the column behind each of them
+	private static final Map<String, String> PATCHABLE_COLUMNS = Map.of(
+			"amount",   "AMOUNT",
+			"owner",    "OWNER",
+			"product",  "PRODUCT",
+			"quantity", "QUANTITY");
+
+	/**
+	 * What a patch did: the number of rows updated (0 or 1), and whether it set any
+	 * column, and so bumped the version; an empty patch sets none.
+	 */
+	public record Patched(int rows, boolean changed) {
+	}
+
+	private final NamedParameterJdbcOperations jdbc;
+
+
+	OrderPatcher(NamedParameterJdbcOperations aJdbc) {
+		this.jdbc = aJdbc;
+	}
+
+
+	/**
+	 * Patches the order, if it belongs to 'requiredOwner' (any owner if null) and is at
+	 * 'version' (any version if null).
+	 *
+	 * @throws IllegalArgumentException if the patch is not a valid patch of an order
+	 */
+	@Transactional
+	public Patched patch(Long id, String requiredOwner, Long version, JsonNode patch) {
+		if (patch == null || !patch.isObject()) {
+			throw new IllegalArgumentException("a merge patch of an order is a JSON object");
+		}
+
+		StringBuilder update = new StringBuilder("UPDATE BE_ORDER SET ");
+		MapSqlParameterSource parameters = new MapSqlParameterSource("id", id)
+				.addValue("owner", requiredOwner)
+				.addValue("version", version);
+		for (Iterator<Map.Entry<String, JsonNode>> members = patch.fields(); members.hasNext();) {
+			Map.Entry<String, JsonNode> member = members.next();
+			String name = member.getKey();
+			if (name.equals("id")) {
+				if (!member.getValue().canConvertToLong() || member.getValue().longValue() != id) {
+					throw new IllegalArgumentException("'id' cannot be changed");
+				}
+				continue;
+			}
+			String column = PATCHABLE_COLUMNS.get(name);
+			if (column == null) {
+				throw new IllegalArgumentException("'" + name + "' cannot be patched");
+			}
+			// prefixed, so that a new 'owner' does not clash with the required one
+			update.append(column).append(" = :patched_").append(name).append(", ");
+			parameters.addValue("patched_" + name, value(name, member.getValue()));
+		}
+		// an empty patch changes nothing, not even the version, but still tells whether the order is there
+		boolean changed = update.toString().endsWith(", ");
+		update.append(changed ? "VERSION = VERSION + 1" : "VERSION = VERSION");
+		update.append(" WHERE ID = :id AND VERSION = COALESCE(:version, VERSION)");
+		if (requiredOwner != null) {
+			update.append(" AND OWNER = :owner");
+		}
+		return new Patched(jdbc.update(update.toString(), parameters), changed);
+	}
+
+
+	private static Object value(String name, JsonNode value) {
+		return switch (name) {
+			case "amount" -> {
+				if (!value.isNumber()) {
+					throw new IllegalArgumentException("'amount' must be a number");
+				}
+				yield value.doubleValue();
+			}
+			case "quantity" -> {
+				if (!value.isIntegralNumber() || !value.canConvertToInt()) {
+					throw new IllegalArgumentException("'quantity' must be an integer");
+				}
+				yield value.intValue();
+			}
+			default -> {
+				if (!value.isTextual() || value.textValue().isBlank()) {
+					throw new IllegalArgumentException("'" + name + "' must be a non blank string");
+				}
+				yield value.textValue();
+			}
+		};
+	}
+}
@@ -0,0 +1,60 @@
+package com.example.beorders.orders;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Queries of {@link OrderRepository} that are written by hand instead of being
+ * derived from the method name, because the derived SQL could not use an index
+ * or would run a COUNT(*) nobody reads.
+ * <p>
+ * The list queries return the requested page only: the totals, when asked for,
+ * come from {@link #countOrders(String, String)}.
+ */
+public interface OrderQueries {
+
+	List<Order> findAllBy(Pageable pageRequest);
+	List<Order> findByOwner(String owner, Pageable pageRequest);
+	List<Order> findByProductIgnoreCase(String productType, Pageable pageRequest);
+	List<Order> findByOwnerAndProductIgnoreCase(String owner, String productType, Pageable pageRequest);
+
+	/**
+	 * The orders with the given ids, in no particular order, in one query; only those
+	 * of the given owner, unless it is null. Only the given fields are read.
+	 */
+	List<Order> findByIdIn(Collection<Long> ids, String owner, OrderFields fields);
+
+	/** The given fields of the order, if it exists and belongs to the owner (any owner if null). */
+	Optional<Order> findFieldsById(Long id, String owner, OrderFields fields);
+
+	/**
+	 * The page of the orders that match the filter, with one statement whatever the filter:
+	 * the SQL is generated once per combination of conditions and fields and then reused.
+	 */
+	List<Order> findByFilter(OrderFilter filter, OrderFields fields, Pageable pageRequest);
+
+	/** Like {@link #findByFilter(OrderFilter, OrderFields, Pageable)}, in keyset mode: the orders after the cursor. */
+	List<Order> findByFilterAfter(OrderFilter filter, OrderFields fields, OrderCursor after, int limit);
+
+	/**
+	 * Number of orders of the given owner and product (either of them can be null
+	 * to mean "any"), read from the counters kept up to date by OrderCountTrigger.
+	 */
+	long countOrders(String owner, String productType);
+
+	/**
+	 * Number of orders that match the filter: read from the counters as long as it has
+	 * no amount/quantity range, counted on BE_ORDER otherwise.
+	 */
+	long countOrders(OrderFilter filter);
+
+
+	/** Whether the list queries can sort by every property of the sort: the ones with a column. */
+	static boolean isSortable(Sort sort) {
+		return OrderQueriesImpl.isSortable(sort);
+	}
+}
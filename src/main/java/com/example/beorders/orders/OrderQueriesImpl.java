@@ -0,0 +1,403 @@
+package com.example.beorders.orders;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.DataClassRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+
+import com.example.beorders.orders.OrderFilter.ProductMatch;
+
+/**
+ * The derived queries would filter on UPPER(PRODUCT), which no H2 index can serve,
+ * and would return a Page, whose total costs a second COUNT(*) statement: these ones
+ * filter on the generated PRODUCT_KEY column (see schema.sql) and read the page only.
+ */
+class OrderQueriesImpl implements OrderQueries, InitializingBean, DisposableBean {
+	static final String COLUMNS = "ID, AMOUNT, OWNER, PRODUCT, QUANTITY, VERSION";
+
+	// the conditions of the list queries: OrderQueryPlanTest explains the statements built from them
+	static final String OWNER_CONDITION = "OWNER = :owner";
+	static final String PRODUCT_CONDITION = "PRODUCT_KEY = UPPER(:productType)";
+
+	// the properties a client can sort on, and the column behind each of them
+	private static final Map<String, String> SORTABLE_COLUMNS = Map.of(
+			"id",       "ID",
+			"amount",   "AMOUNT",
+			"owner",    "OWNER",
+			"product",  "PRODUCT",
+			"quantity", "QUANTITY");
+
+	private static final RowMapper<Order> ORDER_ROW_MAPPER = new DataClassRowMapper<>(Order.class);
+
+	// beyond this many shapes the filter statements are still generated, just no longer kept
+	private static final int MAX_FILTER_STATEMENTS = 256;
+
+	// a product search matching more orders than this reads them with the LIKE alone
+	private static final int MAX_SEARCH_CANDIDATES = 1024;
+
+	enum FilterStatementType { PAGE, AFTER, COUNT }
+
+	/**
+	 * What the SQL of a filter depends on: which conditions are set, how many products,
+	 * owners and candidate ids of a product search are listed (rounded up to a power of two,
+	 * see filterParameters), which fields are read and how the rows are sorted and limited.
+	 * Never the values, which are all bound as parameters.
+	 */
+	record FilterShape(
+			FilterStatementType type,
+			boolean minAmount,
+			boolean maxAmount,
+			boolean minQuantity,
+			boolean maxQuantity,
+			int products,
+			int owners,
+			boolean productSearch,
+			int candidates,
+			OrderFields fields,
+			Sort sort,
+			boolean paged) {
+
+		static FilterShape of(FilterStatementType type, OrderFilter filter, List<Long> candidateIds, OrderFields fields, Sort sort, boolean paged) {
+			return new FilterShape(type,
+					filter.minAmount() != null, filter.maxAmount() != null,
+					filter.minQuantity() != null, filter.maxQuantity() != null,
+					padded(filter.products().size()), padded(filter.owners().size()),
+					filter.productSearch() != null, candidateIds == null ? 0 : padded(candidateIds.size()),
+					fields, sort, paged);
+		}
+	}
+
+	private final NamedParameterJdbcOperations jdbc;
+	private final int maxIndexedOrders;
+	private final Map<FilterShape, String> filterStatements = new ConcurrentHashMap<>();
+	private String database;
+	private ProductSearchIndex productSearchIndex;
+
+
+	OrderQueriesImpl(
+			NamedParameterJdbcOperations aJdbc,
+			@Value("${beorders.product-search.max-orders:1000000}") int maxIndexedOrders) {
+		this.jdbc = aJdbc;
+		this.maxIndexedOrders = maxIndexedOrders;
+	}
+
+
+	// the ProductSearchIndex lives as long as this context: H2 registers it, by database, when it creates the trigger
+	@Override
+	public void afterPropertiesSet() {
+		database = jdbc.getJdbcOperations().queryForObject("SELECT DATABASE()", String.class);
+		productSearchIndex = ProductSearchIndex.of(database);
+		productSearchIndex.limit(maxIndexedOrders);
+	}
+
+
+	@Override
+	public void destroy() {
+		ProductSearchIndex.release(database);
+	}
+
+
+	@Override
+	public List<Order> findAllBy(Pageable pageRequest) {
+		return findPage(null, new MapSqlParameterSource(), pageRequest);
+	}
+
+
+	@Override
+	public List<Order> findByOwner(String owner, Pageable pageRequest) {
+		MapSqlParameterSource parameters = new MapSqlParameterSource("owner", owner);
+		return findPage(OWNER_CONDITION, parameters, pageRequest);
+	}
+
+
+	@Override
+	public List<Order> findByProductIgnoreCase(String productType, Pageable pageRequest) {
+		MapSqlParameterSource parameters = new MapSqlParameterSource("productType", productType);
+		return findPage(PRODUCT_CONDITION, parameters, pageRequest);
+	}
+
+
+	@Override
+	public List<Order> findByOwnerAndProductIgnoreCase(String owner, String productType, Pageable pageRequest) {
+		MapSqlParameterSource parameters = new MapSqlParameterSource("productType", productType)
+				.addValue("owner", owner);
+		return findPage(OWNER_CONDITION + " AND " + PRODUCT_CONDITION, parameters, pageRequest);
+	}
+
+
+	@Override
+	public List<Order> findByIdIn(Collection<Long> ids, String owner, OrderFields fields) {
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+		// padded like the lists of the filters, so that 5 to 8 ids share one statement
+		MapSqlParameterSource parameters = new MapSqlParameterSource("ids", padded(new ArrayList<>(ids)));
+		String select = "SELECT " + fields.columns(false) + " FROM BE_ORDER WHERE ID IN (:ids)";
+		if (owner != null) {
+			select += " AND OWNER = :owner";
+			parameters.addValue("owner", owner);
+		}
+		return jdbc.query(select, parameters, rowMapper(fields, false));
+	}
+
+
+	@Override
+	public Optional<Order> findFieldsById(Long id, String owner, OrderFields fields) {
+		return findByIdIn(List.of(id), owner, fields).stream().findFirst();
+	}
+
+
+	@Override
+	public List<Order> findByFilter(OrderFilter filter, OrderFields fields, Pageable pageRequest) {
+		List<Long> candidateIds = searchCandidates(filter);
+		if (candidateIds != null && candidateIds.isEmpty()) {
+			return List.of();
+		}
+		MapSqlParameterSource parameters = filterParameters(filter, candidateIds);
+		if (pageRequest.isPaged()) {
+			parameters.addValue("limit", pageRequest.getPageSize()).addValue("offset", pageRequest.getOffset());
+		}
+		FilterShape shape = FilterShape.of(FilterStatementType.PAGE, filter, candidateIds, fields, pageRequest.getSort(), pageRequest.isPaged());
+		return jdbc.query(filterStatement(shape), parameters, rowMapper(fields, false));
+	}
+
+
+	@Override
+	public List<Order> findByFilterAfter(OrderFilter filter, OrderFields fields, OrderCursor after, int limit) {
+		List<Long> candidateIds = searchCandidates(filter);
+		if (candidateIds != null && candidateIds.isEmpty()) {
+			return List.of();
+		}
+		MapSqlParameterSource parameters = filterParameters(filter, candidateIds)
+				.addValue("amount", after.amount())
+				.addValue("id", after.id())
+				.addValue("limit", limit);
+		FilterShape shape = FilterShape.of(FilterStatementType.AFTER, filter, candidateIds, fields, Sort.unsorted(), true);
+		return jdbc.query(filterStatement(shape), parameters, rowMapper(fields, true));
+	}
+
+
+	@Override
+	public long countOrders(OrderFilter filter) {
+		List<Long> candidateIds = searchCandidates(filter);
+		if (candidateIds != null && candidateIds.isEmpty()) {
+			return 0;
+		}
+		FilterShape shape = FilterShape.of(FilterStatementType.COUNT, filter, candidateIds, OrderFields.ALL, Sort.unsorted(), false);
+		return jdbc.queryForObject(filterStatement(shape), filterParameters(filter, candidateIds), Long.class);
+	}
+
+
+	@Override
+	public long countOrders(String owner, String productType) {
+		StringBuilder select = new StringBuilder("SELECT COALESCE(SUM(ROW_COUNT), 0) FROM BE_ORDER_COUNT WHERE 1 = 1");
+		MapSqlParameterSource parameters = new MapSqlParameterSource();
+		if (owner != null) {
+			select.append(" AND OWNER = :owner");
+			parameters.addValue("owner", owner);
+		}
+		if (productType != null) {
+			select.append(" AND PRODUCT_KEY = UPPER(:productType)");
+			parameters.addValue("productType", productType);
+		}
+		return jdbc.queryForObject(select.toString(), parameters, Long.class);
+	}
+
+
+	private List<Order> findPage(String where, MapSqlParameterSource parameters, Pageable pageRequest) {
+		if (pageRequest.isPaged()) {
+			parameters.addValue("limit", pageRequest.getPageSize()).addValue("offset", pageRequest.getOffset());
+		}
+		return jdbc.query(pageStatement(where, pageRequest), parameters, ORDER_ROW_MAPPER);
+	}
+
+
+	/** The SELECT of a page of the orders that meet the condition (all of them when it is null). */
+	static String pageStatement(String where, Pageable pageRequest) {
+		return "SELECT " + COLUMNS + " FROM BE_ORDER"
+				+ (where == null ? "" : " WHERE " + where)
+				+ orderBy(pageRequest.getSort())
+				+ (pageRequest.isPaged() ? " LIMIT :limit OFFSET :offset" : "");
+	}
+
+
+	/**
+	 * The ids of the orders whose product matches the product search of the filter, read from
+	 * the ProductSearchIndex; null when there is no search, or when the index cannot narrow it
+	 * down (a term shorter than a trigram, or too many matches) and the LIKE has to do it alone.
+	 */
+	private List<Long> searchCandidates(OrderFilter filter) {
+		if (filter.productSearch() == null) {
+			return null;
+		}
+		// after a write made outside of a transaction, the committed rows are read again
+		if (productSearchIndex.isStale()) {
+			jdbc.getJdbcOperations().execute((ConnectionCallback<Void>) connection -> {
+				productSearchIndex.reload(connection);
+				return null;
+			});
+		}
+		return productSearchIndex.search(filter.productSearch(), filter.productMatch(), MAX_SEARCH_CANDIDATES);
+	}
+
+
+	// all the fields are read by the column names of the record, the others by OrderFields
+	private static RowMapper<Order> rowMapper(OrderFields fields, boolean withAmount) {
+		return fields.isAll() ? ORDER_ROW_MAPPER : fields.rowMapper(withAmount);
+	}
+
+
+	private String filterStatement(FilterShape shape) {
+		String statement = filterStatements.get(shape);
+		if (statement == null) {
+			statement = buildFilterStatement(shape);
+			if (filterStatements.size() < MAX_FILTER_STATEMENTS) {
+				filterStatements.putIfAbsent(shape, statement);
+			}
+		}
+		return statement;
+	}
+
+
+	static String buildFilterStatement(FilterShape shape) {
+		// the counters know the owners and the products, not the amounts, the quantities and the searches
+		boolean fromCounters = shape.type() == FilterStatementType.COUNT
+				&& !(shape.minAmount() || shape.maxAmount() || shape.minQuantity() || shape.maxQuantity() || shape.productSearch());
+		StringBuilder select = new StringBuilder(switch (shape.type()) {
+			case PAGE -> "SELECT " + shape.fields().columns(false) + " FROM BE_ORDER WHERE 1 = 1";
+			case AFTER -> "SELECT " + shape.fields().columns(true) + " FROM BE_ORDER WHERE 1 = 1";
+			case COUNT -> fromCounters ?
+					"SELECT COALESCE(SUM(ROW_COUNT), 0) FROM BE_ORDER_COUNT WHERE 1 = 1"
+					: "SELECT COUNT(*) FROM BE_ORDER WHERE 1 = 1";
+		});
+		if (shape.owners() > 0) {
+			select.append(" AND OWNER IN (").append(placeholders("owner", shape.owners(), false)).append(")");
+		}
+		if (shape.products() > 0) {
+			select.append(" AND PRODUCT_KEY IN (").append(placeholders("product", shape.products(), true)).append(")");
+		}
+		// the candidates of the index are checked again: the index is only updated after the commit
+		if (shape.candidates() > 0) {
+			select.append(" AND ID IN (:candidateIds)");
+		}
+		if (shape.productSearch()) {
+			select.append(" AND PRODUCT_KEY LIKE UPPER(:productPattern) ESCAPE '\\'");
+		}
+		if (shape.minAmount()) {
+			select.append(" AND AMOUNT >= :minAmount");
+		}
+		if (shape.maxAmount()) {
+			select.append(" AND AMOUNT <= :maxAmount");
+		}
+		if (shape.minQuantity()) {
+			select.append(" AND QUANTITY >= :minQuantity");
+		}
+		if (shape.maxQuantity()) {
+			select.append(" AND QUANTITY <= :maxQuantity");
+		}
+		switch (shape.type()) {
+			case PAGE -> {
+				select.append(orderBy(shape.sort()));
+				if (shape.paged()) {
+					select.append(" LIMIT :limit OFFSET :offset");
+				}
+			}
+			case AFTER -> select.append(" AND AMOUNT >= :amount AND (AMOUNT > :amount OR ID > :id) ORDER BY AMOUNT ASC, ID ASC LIMIT :limit");
+			case COUNT -> { }
+		}
+		return select.toString();
+	}
+
+
+	private static String placeholders(String name, int count, boolean upperCase) {
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			placeholders.append(i == 0 ? "" : ", ").append(upperCase ? "UPPER(:" + name + i + ")" : ":" + name + i);
+		}
+		return placeholders.toString();
+	}
+
+
+	// the lists are padded with their last value up to the size of the shape, so that 3 and 4
+	// products share one statement (and one prepared statement in the database) instead of two
+	static MapSqlParameterSource filterParameters(OrderFilter filter, List<Long> candidateIds) {
+		MapSqlParameterSource parameters = new MapSqlParameterSource()
+				.addValue("minAmount", filter.minAmount())
+				.addValue("maxAmount", filter.maxAmount())
+				.addValue("minQuantity", filter.minQuantity())
+				.addValue("maxQuantity", filter.maxQuantity());
+		addPadded(parameters, "owner", filter.owners());
+		addPadded(parameters, "product", filter.products());
+		if (filter.productSearch() != null) {
+			String term = filter.productSearch().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+			parameters.addValue("productPattern", filter.productMatch() == ProductMatch.PREFIX ? term + "%" : "%" + term + "%");
+		}
+		if (candidateIds != null) {
+			parameters.addValue("candidateIds", padded(candidateIds));
+		}
+		return parameters;
+	}
+
+
+	private static void addPadded(MapSqlParameterSource parameters, String name, List<String> values) {
+		for (int i = 0; i < padded(values.size()); i++) {
+			parameters.addValue(name + i, values.get(Math.min(i, values.size() - 1)));
+		}
+	}
+
+
+	private static <T> List<T> padded(List<T> values) {
+		List<T> paddedValues = new ArrayList<>(values);
+		while (paddedValues.size() < padded(values.size())) {
+			paddedValues.add(values.getLast());
+		}
+		return paddedValues;
+	}
+
+
+	private static int padded(int size) {
+		return size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+	}
+
+
+	static String orderBy(Sort sort) {
+		if (sort.isUnsorted()) {
+			return " ORDER BY ID ASC";
+		}
+		String columns = sort.stream()
+				.map(order -> column(order.getProperty()) + (order.isAscending() ? " ASC" : " DESC"))
+				.collect(Collectors.joining(", "));
+		// ID breaks ties, so that pages never overlap and the (..., AMOUNT, ID) indexes match the order
+		return sort.getOrderFor("id") == null ?
+				" ORDER BY " + columns + ", ID ASC"
+				: " ORDER BY " + columns;
+	}
+
+
+	static boolean isSortable(Sort sort) {
+		return sort.stream().allMatch(order -> SORTABLE_COLUMNS.containsKey(order.getProperty()));
+	}
+
+
+	private static String column(String property) {
+		String column = SORTABLE_COLUMNS.get(property);
+		if (column == null) {
+			throw new IllegalArgumentException("Orders cannot be sorted by '" + property + "'");
+		}
+		return column;
+	}
+}
@@ -1,21 +1,87 @@
 package com.example.beorders.orders;
 
+import java.util.List;
 import java.util.Optional;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface OrderRepository extends CrudRepository<Order, Long>, PagingAndSortingRepository<Order, Long> {
+public interface OrderRepository extends CrudRepository<Order, Long>, PagingAndSortingRepository<Order, Long>, OrderQueries {
 
 	Optional<Order> findById(Long id);
 	Order           findByIdAndOwner(Long id, String owner);
 	boolean         existsByIdAndOwner(Long id, String owner);
 
-	Page<Order>     findByOwner(String owner, PageRequest pageRequest);
-	Page<Order>     findByProductIgnoreCase(String productType, Pageable pageRequest);
-	Page<Order>     findByOwnerAndProductIgnoreCase(String owner, String productType, Pageable pageRequest);
-	Page<Order>     findAll(Pageable pageRequest);
+	// the paged list queries (findAllBy, findByOwner, findByProductIgnoreCase, ...) come from OrderQueries
+
+
+	// single-statement writes for PUT and DELETE: the number of rows affected (0 or 1) tells whether
+	// the order exists (and belongs to the owner, and is still at the given version), with no SELECT
+	// before and no window between the two. A null version matches any version, a null newOwner keeps
+	// the current owner; every update bumps the version. Each runs in a transaction, whose commit the
+	// ProductSearchTrigger waits for.
+
+	@Transactional
+	@Modifying
+	@Query("""
+			UPDATE BE_ORDER SET AMOUNT = :amount, OWNER = COALESCE(:newOwner, OWNER), PRODUCT = :product, QUANTITY = :quantity,
+			VERSION = VERSION + 1
+			WHERE ID = :id AND VERSION = COALESCE(:version, VERSION)""")
+	int             updateById(Long id, Long version, Double amount, String newOwner, String product, Integer quantity);
+
+	@Transactional
+	@Modifying
+	@Query("""
+			UPDATE BE_ORDER SET AMOUNT = :amount, OWNER = COALESCE(:newOwner, OWNER), PRODUCT = :product, QUANTITY = :quantity,
+			VERSION = VERSION + 1
+			WHERE ID = :id AND OWNER = :owner AND VERSION = COALESCE(:version, VERSION)""")
+	int             updateByIdAndOwner(Long id, String owner, Long version, Double amount, String newOwner, String product, Integer quantity);
+
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM BE_ORDER WHERE ID = :id AND VERSION = COALESCE(:version, VERSION)")
+	int             removeById(Long id, Long version);
+
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM BE_ORDER WHERE ID = :id AND OWNER = :owner AND VERSION = COALESCE(:version, VERSION)")
+	int             removeByIdAndOwner(Long id, String owner, Long version);
+
+
+	// keyset (seek) pagination: the rows after (amount, id) in the default listing order.
+	// The predicate is written as 'AMOUNT >= ? AND (...)' so that it stays a range scan on AMOUNT.
+
+	@Query("""
+			SELECT * FROM BE_ORDER
+			WHERE AMOUNT >= :amount AND (AMOUNT > :amount OR ID > :id)
+			ORDER BY AMOUNT ASC, ID ASC
+			LIMIT :limit""")
+	List<Order>     findAllAfter(Double amount, Long id, int limit);
+
+	@Query("""
+			SELECT * FROM BE_ORDER
+			WHERE PRODUCT_KEY = UPPER(:productType)
+			AND AMOUNT >= :amount AND (AMOUNT > :amount OR ID > :id)
+			ORDER BY AMOUNT ASC, ID ASC
+			LIMIT :limit""")
+	List<Order>     findByProductIgnoreCaseAfter(String productType, Double amount, Long id, int limit);
+
+	@Query("""
+			SELECT * FROM BE_ORDER
+			WHERE OWNER = :owner
+			AND AMOUNT >= :amount AND (AMOUNT > :amount OR ID > :id)
+			ORDER BY AMOUNT ASC, ID ASC
+			LIMIT :limit""")
+	List<Order>     findByOwnerAfter(String owner, Double amount, Long id, int limit);
+
+	@Query("""
+			SELECT * FROM BE_ORDER
+			WHERE OWNER = :owner AND PRODUCT_KEY = UPPER(:productType)
+			AND AMOUNT >= :amount AND (AMOUNT > :amount OR ID > :id)
+			ORDER BY AMOUNT ASC, ID ASC
+			LIMIT :limit""")
+	List<Order>     findByOwnerAndProductIgnoreCaseAfter(String owner, String productType, Double amount, Long id, int limit);
 }
@@ -0,0 +1,240 @@
+package com.example.beorders.orders;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.beorders.diagnostics.ServerTiming;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Off-heap cache of the JSON encoding of single orders, keyed by order id.
+ * <p>
+ * The encoded bytes live in one direct buffer allocated up front and split into
+ * fixed-size slots, so the cache never grows past {@code max-entries * entry-size}
+ * bytes and adds nothing for the garbage collector to trace. Orders whose JSON does
+ * not fit in a slot are simply not cached. When every slot is taken the least
+ * recently used (LRU) or the oldest (FIFO) entry makes room for the new one.
+ * <p>
+ * The owner and the version are kept next to the bytes so that callers can check
+ * the owner and the ETag without decoding anything. Every write path must
+ * {@link #evict(Long) evict} the order it changed.
+ * <p>
+ * Its hits, misses, evictions and size are published with the usual cache meter
+ * names, tagged {@code cache=order-responses}.
+ */
+@Component
+public class OrderResponseCache implements MeterBinder {
+	private static final String CACHE_NAME = "order-responses";
+
+
+	public enum EvictionPolicy { LRU, FIFO }
+
+	public record CachedOrder(byte[] json, String owner, Long version) {
+	}
+
+	private record Slot(int index, int length, String owner, Long version) {
+	}
+
+	private final ObjectMapper objectMapper;
+	private final boolean enabled;
+	private final int entrySize;
+	private final ByteBuffer arena;
+	private final Map<Long, Slot> slots;
+	private final int[] freeSlots;
+	private int freeSlotCount;
+	private long invalidations;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	OrderResponseCache(
+			ObjectMapper anObjectMapper,
+			@Value("${beorders.cache.order-responses.enabled:true}") boolean enabled,
+			@Value("${beorders.cache.order-responses.max-entries:10000}") int maxEntries,
+			@Value("${beorders.cache.order-responses.entry-size:512}") int entrySize,
+			@Value("${beorders.cache.order-responses.eviction-policy:LRU}") EvictionPolicy evictionPolicy) {
+		this.objectMapper = anObjectMapper;
+		this.enabled = enabled;
+		this.entrySize = entrySize;
+		this.arena = ByteBuffer.allocateDirect(enabled ? capacity(maxEntries, entrySize) : 0);
+		this.slots = new LinkedHashMap<>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU);
+		this.freeSlots = new int[enabled ? maxEntries : 0];
+		for (int i = 0; i < freeSlots.length; i++) {
+			freeSlots[i] = freeSlots.length - 1 - i;
+		}
+		this.freeSlotCount = freeSlots.length;
+	}
+
+
+	/**
+	 * Returns the cached encoding of the order, or null on a miss. Before reading the
+	 * order from the database on a miss, take a {@link #stamp()} to pass to {@link #put}.
+	 */
+	public CachedOrder get(Long id) {
+		lock.lock();
+		try {
+			Slot slot = slots.get(id);
+			if (slot == null) {
+				misses.increment();
+				return null;
+			}
+			byte[] json = new byte[slot.length()];
+			arena.get(slot.index() * entrySize, json);
+			hits.increment();
+			return new CachedOrder(json, slot.owner(), slot.version());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Encodes the order and caches it, unless some order has been evicted since
+	 * {@code stamp} was taken: the order might have been read before that change.
+	 */
+	public CachedOrder put(Order order, long stamp) {
+		byte[] json;
+		long start = ServerTiming.start();
+		try {
+			json = objectMapper.writeValueAsBytes(order);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Cannot encode order " + order.id(), e);
+		} finally {
+			ServerTiming.stop(ServerTiming.Phase.SERIALIZE, start);
+		}
+		CachedOrder encoded = new CachedOrder(json, order.owner(), order.version());
+		if (!enabled || json.length > entrySize) {
+			return encoded;
+		}
+
+		lock.lock();
+		try {
+			if (stamp != invalidations) {
+				return encoded;
+			}
+			release(slots.remove(order.id()));
+			if (freeSlotCount == 0) {
+				Iterator<Slot> eldest = slots.values().iterator();
+				release(eldest.next());
+				eldest.remove();
+				evictions.increment();
+			}
+			int index = freeSlots[--freeSlotCount];
+			arena.put(index * entrySize, json);
+			slots.put(order.id(), new Slot(index, json.length, order.owner(), order.version()));
+			return encoded;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	public long stamp() {
+		lock.lock();
+		try {
+			return invalidations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	public void evict(Long id) {
+		lock.lock();
+		try {
+			invalidations++;
+			release(slots.remove(id));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	public long hits() {
+		return hits.sum();
+	}
+
+
+	public long misses() {
+		return misses.sum();
+	}
+
+
+	public long evictions() {
+		return evictions.sum();
+	}
+
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("cache.gets", this, OrderResponseCache::hits)
+				.tags("cache", CACHE_NAME, "result", "hit")
+				.description("The number of times an order was served from the cache")
+				.register(registry);
+		FunctionCounter.builder("cache.gets", this, OrderResponseCache::misses)
+				.tags("cache", CACHE_NAME, "result", "miss")
+				.description("The number of times an order had to be read from the database")
+				.register(registry);
+		FunctionCounter.builder("cache.evictions", this, OrderResponseCache::evictions)
+				.tags("cache", CACHE_NAME)
+				.description("The number of orders dropped to make room for others")
+				.register(registry);
+		Gauge.builder("cache.size", this, OrderResponseCache::size)
+				.tags("cache", CACHE_NAME)
+				.description("The number of orders in the cache")
+				.register(registry);
+		Gauge.builder("cache.capacity", this, cache -> cache.arena.capacity())
+				.tags("cache", CACHE_NAME)
+				.baseUnit("bytes")
+				.description("The direct memory taken by the cache")
+				.register(registry);
+	}
+
+
+	public int size() {
+		lock.lock();
+		try {
+			return slots.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	// one direct buffer holds every slot, and a ByteBuffer is indexed by int: the slot offsets must fit in one too
+	private static int capacity(int maxEntries, int entrySize) {
+		if (maxEntries <= 0 || entrySize <= 0) {
+			throw new IllegalArgumentException("beorders.cache.order-responses.max-entries and entry-size must be positive, not "
+					+ maxEntries + " and " + entrySize + " (set beorders.cache.order-responses.enabled=false to turn the cache off)");
+		}
+		try {
+			return Math.multiplyExact(maxEntries, entrySize);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("beorders.cache.order-responses.max-entries * entry-size must not exceed "
+					+ Integer.MAX_VALUE + " bytes, not " + ((long) maxEntries * entrySize), e);
+		}
+	}
+
+
+	private void release(Slot slot) {
+		if (slot != null) {
+			freeSlots[freeSlotCount++] = slot.index();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.example.beorders.orders;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.example.beorders.orders.OrderFilter.ProductMatch;
+
+/**
+ * In-memory trigram index of the PRODUCT_KEY of the orders, one per database, kept up to
+ * date by ProductSearchTrigger: it turns a prefix or substring search into the ids of the
+ * matching orders without reading BE_ORDER, where a LIKE '%...%' would scan the table.
+ * <p>
+ * Every product is indexed under its trigrams, the first one starting with a '^' marker,
+ * so that a prefix of two characters already has a trigram. A search reads the ids under
+ * the rarest trigram of the term and keeps those whose product actually matches: the ids
+ * are exact with respect to the index, which callers still check against the table.
+ * <p>
+ * H2, not Spring, creates the trigger, so the index is registered under the name of its
+ * database. OrderQueriesImpl releases it when the application context closes, and the
+ * trigger when the database closes or the trigger is dropped.
+ * <p>
+ * It takes about 100 bytes per order, plus about 50 per character of its product (one
+ * posting per trigram): some 700 MB for a million orders with 15-character products. Past
+ * {@code beorders.product-search.max-orders} orders it is dropped, and the searches fall
+ * back to the LIKE alone.
+ */
+final class ProductSearchIndex {
+	private static final char START = '^';
+	private static final int GRAM = 3;
+	private static final String SELECT_PRODUCT_KEYS = "SELECT ID, PRODUCT_KEY FROM BE_ORDER";
+
+	private static final Map<String, ProductSearchIndex> INDEXES = new ConcurrentHashMap<>();
+
+	private final Map<Long, String> productKeys = new HashMap<>();
+	private final Map<String, Set<Long>> postings = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile int maxOrders = Integer.MAX_VALUE;
+	private volatile boolean stale;
+	// more orders than maxOrders: nothing is indexed, guarded by lock
+	private boolean overflowed;
+
+
+	private ProductSearchIndex() {
+	}
+
+
+	/** The index of the database with the given name (see the DATABASE() function of H2). */
+	static ProductSearchIndex of(String database) {
+		return INDEXES.computeIfAbsent(database, name -> new ProductSearchIndex());
+	}
+
+
+	/** Drops the index of the database, if any: the next {@link #of} starts an empty one. */
+	static void release(String database) {
+		ProductSearchIndex index = INDEXES.remove(database);
+		if (index != null) {
+			index.clear();
+		}
+	}
+
+
+	/**
+	 * The ids of the orders whose product starts with (or contains) the term, ignoring case;
+	 * null when the index cannot tell: the term is too short to have a trigram, more than
+	 * 'maxIds' orders match, or there are too many orders to index.
+	 */
+	List<Long> search(String term, ProductMatch match, int maxIds) {
+		String key = term.toUpperCase(Locale.ROOT);
+		List<String> grams = grams(match == ProductMatch.PREFIX ? START + key : key);
+		if (grams.isEmpty()) {
+			return null;
+		}
+
+		lock.readLock().lock();
+		try {
+			if (overflowed) {
+				return null;
+			}
+			Set<Long> rarest = null;
+			for (String gram : grams) {
+				Set<Long> ids = postings.get(gram);
+				if (ids == null) {
+					return List.of();
+				}
+				if (rarest == null || ids.size() < rarest.size()) {
+					rarest = ids;
+				}
+			}
+			List<Long> matches = new ArrayList<>();
+			for (Long id : rarest) {
+				String productKey = productKeys.get(id);
+				if (match == ProductMatch.PREFIX ? productKey.startsWith(key) : productKey.contains(key)) {
+					if (matches.size() == maxIds) {
+						return null;
+					}
+					matches.add(id);
+				}
+			}
+			matches.sort(Comparator.naturalOrder());
+			return matches;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+
+	void put(Long id, String productKey) {
+		lock.writeLock().lock();
+		try {
+			if (overflowed) {
+				return;
+			}
+			if (!productKeys.containsKey(id) && productKeys.size() >= maxOrders) {
+				overflowLocked();
+				return;
+			}
+			putLocked(id, productKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	void remove(Long id) {
+		lock.writeLock().lock();
+		try {
+			removeLocked(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	void clear() {
+		lock.writeLock().lock();
+		try {
+			productKeys.clear();
+			postings.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	/** Caps the number of orders indexed: past it, the index is dropped (see the class comment). */
+	void limit(int aMaxOrders) {
+		lock.writeLock().lock();
+		try {
+			maxOrders = aMaxOrders;
+			if (productKeys.size() > maxOrders) {
+				overflowLocked();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	/**
+	 * Marks the index as out of date, after a change whose commit cannot be waited for: it is
+	 * to be reloaded from BE_ORDER before the next search.
+	 */
+	void invalidate() {
+		stale = true;
+	}
+
+
+	boolean isStale() {
+		return stale;
+	}
+
+
+	/** Rebuilds the index from the rows of BE_ORDER the connection sees, up to the cap. */
+	void reload(Connection connection) throws SQLException {
+		// cleared first: an invalidation during the reload makes the next search reload again
+		stale = false;
+		Map<Long, String> orders = new HashMap<>();
+		int cap = maxOrders;
+		try (PreparedStatement statement = connection.prepareStatement(SELECT_PRODUCT_KEYS);
+				ResultSet rows = statement.executeQuery()) {
+			while (orders.size() <= cap && rows.next()) {
+				orders.put(rows.getLong(1), rows.getString(2));
+			}
+		}
+
+		lock.writeLock().lock();
+		try {
+			productKeys.clear();
+			postings.clear();
+			overflowed = orders.size() > cap;
+			if (!overflowed) {
+				orders.forEach(this::putLocked);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	private void putLocked(Long id, String productKey) {
+		removeLocked(id);
+		productKeys.put(id, productKey);
+		for (String gram : grams(START + productKey)) {
+			postings.computeIfAbsent(gram, g -> new HashSet<>()).add(id);
+		}
+	}
+
+
+	private void overflowLocked() {
+		overflowed = true;
+		productKeys.clear();
+		postings.clear();
+	}
+
+
+	private void removeLocked(Long id) {
+		String productKey = productKeys.remove(id);
+		if (productKey == null) {
+			return;
+		}
+		for (String gram : grams(START + productKey)) {
+			Set<Long> ids = postings.get(gram);
+			if (ids != null && ids.remove(id) && ids.isEmpty()) {
+				postings.remove(gram);
+			}
+		}
+	}
+
+
+	private static List<String> grams(String text) {
+		List<String> grams = new ArrayList<>();
+		for (int i = 0; i + GRAM <= text.length(); i++) {
+			grams.add(text.substring(i, i + GRAM));
+		}
+		return grams;
+	}
+}
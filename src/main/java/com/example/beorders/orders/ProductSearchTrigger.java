@@ -0,0 +1,137 @@
+package com.example.beorders.orders;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.h2.api.Trigger;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * H2 row trigger on BE_ORDER (see schema.sql) that keeps the ProductSearchIndex of the
+ * database in step with every insert, update and delete, whatever statement issued them.
+ * <p>
+ * The index is not transactional, so it only ever takes committed changes: inside a Spring
+ * transaction they are applied once it commits (and dropped if it rolls back). Outside of
+ * one (the SQL scripts, a JDBC client) the commit cannot be seen from here, so the index is
+ * reloaded from BE_ORDER before the next search instead; only a search that runs between
+ * such a change and its commit can reload without it. The application writes all run in
+ * transactions. The index is (re)built from BE_ORDER whenever H2 initializes the trigger,
+ * and released when H2 closes it.
+ */
+public class ProductSearchTrigger implements Trigger {
+
+	private record Change(Long id, String productKey) {
+	}
+
+	private String database;
+	private ProductSearchIndex index;
+	private int idColumn;
+	private int productKeyColumn;
+
+
+	@Override
+	public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type)
+			throws SQLException {
+		// PRODUCT_KEY is an invisible column, so ask INFORMATION_SCHEMA rather than DatabaseMetaData
+		String select = """
+				SELECT COLUMN_NAME, ORDINAL_POSITION FROM INFORMATION_SCHEMA.COLUMNS
+				WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_NAME IN ('ID', 'PRODUCT_KEY')""";
+		try (PreparedStatement statement = conn.prepareStatement(select)) {
+			statement.setString(1, schemaName);
+			statement.setString(2, tableName);
+			try (ResultSet columns = statement.executeQuery()) {
+				while (columns.next()) {
+					int index = columns.getInt("ORDINAL_POSITION") - 1;
+					if (columns.getString("COLUMN_NAME").equals("ID")) {
+						idColumn = index;
+					} else {
+						productKeyColumn = index;
+					}
+				}
+			}
+		}
+
+		try (PreparedStatement statement = conn.prepareStatement("SELECT DATABASE()");
+				ResultSet name = statement.executeQuery()) {
+			name.next();
+			database = name.getString(1);
+		}
+		index = ProductSearchIndex.of(database);
+		index.reload(conn);
+	}
+
+
+	@Override
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+		if (oldRow != null && newRow != null
+				&& Objects.equals(oldRow[idColumn], newRow[idColumn])
+				&& Objects.equals(oldRow[productKeyColumn], newRow[productKeyColumn])) {
+			// an update that did not change the product
+			return;
+		}
+		List<Change> changes = new ArrayList<>(2);
+		if (oldRow != null) {
+			changes.add(new Change(((Number) oldRow[idColumn]).longValue(), null));
+		}
+		if (newRow != null) {
+			changes.add(new Change(((Number) newRow[idColumn]).longValue(), (String) newRow[productKeyColumn]));
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			pendingChanges().addAll(changes);
+		} else {
+			index.invalidate();
+		}
+	}
+
+
+	// the database is closing, or the trigger is dropped
+	@Override
+	public void close() {
+		ProductSearchIndex.release(database);
+	}
+
+
+	@Override
+	public void remove() {
+		ProductSearchIndex.release(database);
+	}
+
+
+	// one list of changes per transaction, applied in the order they happened
+	@SuppressWarnings("unchecked")
+	private List<Change> pendingChanges() {
+		List<Change> pending = (List<Change>) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			List<Change> changes = new ArrayList<>();
+			TransactionSynchronizationManager.bindResource(this, changes);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(ProductSearchTrigger.this);
+					if (status == STATUS_COMMITTED) {
+						apply(changes);
+					}
+				}
+			});
+			pending = changes;
+		}
+		return pending;
+	}
+
+
+	private void apply(List<Change> changes) {
+		for (Change change : changes) {
+			if (change.productKey() == null) {
+				index.remove(change.id());
+			} else {
+				index.put(change.id(), change.productKey());
+			}
+		}
+	}
+}
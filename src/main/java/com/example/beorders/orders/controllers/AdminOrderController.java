@@ -1,80 +1,333 @@
 package com.example.beorders.orders.controllers;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.util.Strings;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import com.example.beorders.orders.Order;
+import com.example.beorders.orders.OrderBulkWriter;
+import com.example.beorders.orders.OrderBulkWriter.OperationType;
+import com.example.beorders.orders.OrderBulkWriter.OwnerRules;
+import com.example.beorders.orders.OrderCursor;
+import com.example.beorders.orders.OrderETags;
+import com.example.beorders.orders.OrderExporter;
+import com.example.beorders.orders.OrderFields;
+import com.example.beorders.orders.OrderFilter;
+import com.example.beorders.orders.OrderFilter.ProductMatch;
+import com.example.beorders.orders.OrderImporter;
+import com.example.beorders.orders.OrderPatcher;
+import com.example.beorders.orders.OrderPatcher.Patched;
+import com.example.beorders.orders.OrderQueries;
 import com.example.beorders.orders.OrderRepository;
+import com.example.beorders.orders.OrderResponseCache;
+import com.example.beorders.orders.OrderResponseCache.CachedOrder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 
 @RestController
 @RequestMapping("/v1/admin/orders")
 public class AdminOrderController {
 	private final OrderRepository orderRepository;
+	private final OrderResponseCache orderResponseCache;
+	private final OrderBulkWriter orderBulkWriter;
+	private final OrderExporter orderExporter;
+	private final OrderImporter orderImporter;
+	private final OrderPatcher orderPatcher;
+	private final OrderReadResponses orderReadResponses;
 	
 	
-	private AdminOrderController(OrderRepository anOrderRepository) {
+	private AdminOrderController(
+			OrderRepository anOrderRepository,
+			OrderResponseCache anOrderResponseCache,
+			OrderBulkWriter anOrderBulkWriter,
+			OrderExporter anOrderExporter,
+			OrderImporter anOrderImporter,
+			OrderPatcher anOrderPatcher,
+			OrderReadResponses anOrderReadResponses) {
 		this.orderRepository = anOrderRepository;
+		this.orderResponseCache = anOrderResponseCache;
+		this.orderBulkWriter = anOrderBulkWriter;
+		this.orderExporter = anOrderExporter;
+		this.orderImporter = anOrderImporter;
+		this.orderPatcher = anOrderPatcher;
+		this.orderReadResponses = anOrderReadResponses;
 	}
 
 
 	@GetMapping
-	private ResponseEntity<List<Order>> findAll(
+	private ResponseEntity<? extends List<?>> findAll(
+			@RequestParam(required = false) List<Long> ids,
+			@RequestParam(required = false) List<String> fields,
 			@RequestParam(required = false) String productType,
+			@RequestParam(required = false) Double minAmount,
+			@RequestParam(required = false) Double maxAmount,
+			@RequestParam(required = false) Integer minQuantity,
+			@RequestParam(required = false) Integer maxQuantity,
+			@RequestParam(required = false) List<String> product,
+			@RequestParam(required = false) String productSearch,
+			@RequestParam(required = false) String productMatch,
+			@RequestParam(required = false) List<String> owner,
+			@RequestParam(required = false) String after,
+			@RequestParam(defaultValue = "false") boolean withTotal,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
 			Pageable pageable,
 			Principal principal
 	) {
+		// sparse fields: '?fields=id,amount' reads and answers those properties only
+		OrderFields orderFields;
+		try {
+			orderFields = OrderFields.of(fields);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+		// an unknown property in '?sort=' is a bad request, not an error of the queries
+		if (!OrderQueries.isSortable(pageable.getSort())) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// the ETags depend on the format of the body, so the responses vary with the Accept header
+		String format = OrderFormatsConfig.preferredBinaryFormat(accept);
+		
+		// multi-get: '?ids=1,2,3' answers those orders, in that order, with one query
+		if (ids != null) {
+			return orderReadResponses.findAllById(ids, null, orderFields, format);
+		}
+		
+		// filters: amount/quantity ranges, sets of products and owners, product search, all applied by the database
+		// (and so are the sparse fields, whose narrower SELECT only the filter queries know how to build)
+		if (minAmount != null || maxAmount != null || minQuantity != null || maxQuantity != null || product != null || owner != null
+				|| productSearch != null || !orderFields.isAll()) {
+			List<String> products = new ArrayList<>(product == null ? List.of() : product);
+			if (!Strings.isBlank(productType)) {
+				products.add(productType);
+			}
+			OrderFilter filter;
+			try {
+				filter = new OrderFilter(minAmount, maxAmount, minQuantity, maxQuantity, products, owner,
+						productSearch, productMatch == null ? null : ProductMatch.valueOf(productMatch.toUpperCase(Locale.ROOT)));
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest().build();
+			}
+			return orderReadResponses.findAllFiltered(filter, orderFields, after, pageable, withTotal, format);
+		}
+		
+		// cursor mode: '?after=<token>' (or a blank '?after=' to start from the beginning)
+		if (after != null) {
+			return findAllAfter(productType, after, pageable.getPageSize(), withTotal, format);
+		}
+		
 		PageRequest pageRequest = PageRequest.of(
 						pageable.getPageNumber(),
 						pageable.getPageSize(),
 						pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))
 					);
 		
-		Page<Order> adminPage = Strings.isBlank(productType) ?
-				orderRepository.findAll(pageRequest)
+		// the list queries only read the requested rows: no COUNT(*) runs behind the scenes
+		List<Order> orders = Strings.isBlank(productType) ?
+				orderRepository.findAllBy(pageRequest)
 				: orderRepository.findByProductIgnoreCase(productType, pageRequest);
 
-		return ResponseEntity.ok(adminPage.getContent());
+		// when If-None-Match matches the ETag, Spring answers 304 without encoding the orders
+		return OrderReadResponses.list(orders, total(withTotal, productType), null, format).body(orders);
+	}
+	
+	
+	private ResponseEntity<List<Order>> findAllAfter(String productType, String after, int pageSize, boolean withTotal, String format) {
+		Optional<OrderCursor> optionalCursor = OrderCursor.decode(after);
+		
+		if (optionalCursor.isEmpty()) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		OrderCursor cursor = optionalCursor.get();
+		List<Order> orders = Strings.isBlank(productType) ?
+				orderRepository.findAllAfter(cursor.amount(), cursor.id(), pageSize)
+				: orderRepository.findByProductIgnoreCaseAfter(productType, cursor.amount(), cursor.id(), pageSize);
+		
+		String nextCursor = OrderCursor.next(orders, pageSize).map(OrderCursor::encode).orElse(null);
+		return OrderReadResponses.list(orders, total(withTotal, productType), nextCursor, format).body(orders);
+	}
+	
+	
+	// the total is read from the per-owner/per-product counters, never from a count scan; null when not asked for
+	private Long total(boolean withTotal, String productType) {
+		if (!withTotal) {
+			return null;
+		}
+		String product = Strings.isBlank(productType) ? null : productType;
+		return orderRepository.countOrders(null, product);
+	}
+	
+	
+	@GetMapping("/export")
+	private void export(
+			@RequestParam(defaultValue = "ndjson") String format,
+			@RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+			HttpServletResponse response
+	) throws IOException {
+		OrderExporter.Format exportFormat;
+		try {
+			exportFormat = OrderExporter.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			response.setStatus(HttpStatus.BAD_REQUEST.value());
+			return;
+		}
+		
+		boolean gzip = acceptsGzip(acceptEncoding);
+		
+		// the rows are written to the response as they are read: no Content-Length, the body is chunked
+		response.setContentType(exportFormat.contentType());
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"orders." + exportFormat.extension() + "\"");
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzip) {
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		
+		OutputStream body = gzip ? new GZIPOutputStream(response.getOutputStream(), 8192) : response.getOutputStream();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+			orderExporter.export(exportFormat, writer);
+		}
+	}
+	
+	
+	/**
+	 * Whether the Accept-Encoding header accepts gzip (or its alias x-gzip) with a quality
+	 * above 0, by name or through '*': 'gzip;q=0' refuses it, whatever '*' says.
+	 */
+	private static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Double gzipQuality = null;
+		Double anyQuality = null;
+		for (String element : acceptEncoding.split(",")) {
+			String[] parameters = element.split(";");
+			String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+			double quality = 1;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.length() > 2 && parameter.substring(0, 2).equalsIgnoreCase("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (coding.equals("gzip") || coding.equals("x-gzip")) {
+				gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+			} else if (coding.equals("*")) {
+				anyQuality = quality;
+			}
+		}
+		Double quality = gzipQuality != null ? gzipQuality : anyQuality;
+		return quality != null && quality > 0;
 	}
 	
 	
 	@GetMapping("/{requestedId}")
-	private ResponseEntity<Order> findById(@PathVariable Long requestedId, Principal principal) {
+	private ResponseEntity<?> findById(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+			Principal principal
+	) {
+		
+		// the cache holds JSON: CBOR and Smile are encoded from the stored order by their converters
+		String format = OrderFormatsConfig.preferredBinaryFormat(accept);
+		if (format != null) {
+			Optional<Order> storedOrder = findOrder(requestedId, principal);
+			if (storedOrder.isEmpty()) {
+				return ResponseEntity.notFound().build();
+			}
+			return ResponseEntity.ok()
+					.varyBy(HttpHeaders.ACCEPT)
+					.eTag(OrderETags.of(storedOrder.get(), format))
+					.body(storedOrder.get());
+		}
+		
+		CachedOrder order = orderResponseCache.get(requestedId);
 		
-		Optional<Order> order = findOrder(requestedId, principal);
+		if (order == null) {
+			long stamp = orderResponseCache.stamp();
+			Optional<Order> storedOrder = findOrder(requestedId, principal);
+			if (storedOrder.isEmpty()) {
+				return ResponseEntity.notFound().build();
+			}
+			// the client has this version already: no need to encode it just to answer 304
+			if (OrderETags.matches(ifNoneMatch, OrderETags.of(storedOrder.get()))) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+						.varyBy(HttpHeaders.ACCEPT)
+						.eTag(OrderETags.of(storedOrder.get()))
+						.build();
+			}
+			order = orderResponseCache.put(storedOrder.get(), stamp);
+		}
 		
-		return order.isEmpty() ?
-				ResponseEntity.notFound().build()
-				: ResponseEntity.ok(order.get());		
+		// when If-None-Match matches the ETag, Spring answers 304 without the body
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.varyBy(HttpHeaders.ACCEPT)
+				.eTag(OrderETags.of(requestedId, order.version()))
+				.body(order.json());
+	}
+	
+	
+	@GetMapping(path = "/{requestedId}", params = "fields")
+	private ResponseEntity<Map<String, Object>> findFieldsById(
+			@PathVariable Long requestedId,
+			@RequestParam List<String> fields,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept
+	) {
+		return orderReadResponses.findFieldsById(requestedId, null, fields, OrderFormatsConfig.preferredBinaryFormat(accept));
 	}
 	
 	
-	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	@PostMapping(consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, OrderFormatsConfig.APPLICATION_SMILE_VALUE })
 	private ResponseEntity<Void> createOrder(@RequestBody Order newOrder, UriComponentsBuilder ucb, Principal principal) {
 
 		String newOwner = Strings.isEmpty(newOrder.owner()) ? principal.getName() : newOrder.owner();
-		Order savedOrderWithOwner = new Order(null, newOrder.amount(), newOwner, newOrder.product(), newOrder.quantity());
+		Order savedOrderWithOwner = new Order(null, newOrder.amount(), newOwner, newOrder.product(), newOrder.quantity(), null);
 		Order savedOrder = orderRepository.save(savedOrderWithOwner);
 		URI locationOfSavedOrder = ucb
 				.path("/v1/admin/orders/{newOrderId}")
@@ -84,35 +337,134 @@ public class AdminOrderController {
 	}
 	
 	
+	@PostMapping(path = "/_bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, OrderFormatsConfig.APPLICATION_SMILE_VALUE })
+	private ResponseEntity<List<OrderBulkWriter.Result>> bulk(@RequestBody List<OrderBulkWriter.Operation> operations, Principal principal) {
+		
+		if (operations.size() > orderBulkWriter.maxOperations()) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// the same rules as POST and PUT on this controller: updates keep the owner unless a new one is given
+		List<OrderBulkWriter.Result> results = orderBulkWriter.execute(operations, new OwnerRules(principal.getName(), null, true));
+		
+		// evict only once the transaction is committed, or a concurrent read could cache the old order again
+		results.stream()
+				.filter(result -> result.op() != OperationType.CREATE && result.status() == HttpStatus.NO_CONTENT.value())
+				.forEach(result -> orderResponseCache.evict(result.id()));
+		
+		return ResponseEntity.ok(results);
+	}
+	
+	
+	@PostMapping(path = "/import", consumes = { "application/x-ndjson", "text/csv" })
+	private ResponseEntity<OrderImporter.Report> importOrders(
+			@RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+			HttpServletRequest request,
+			Principal principal
+	) throws IOException {
+		OrderExporter.Format format = MediaType.parseMediaType(request.getContentType()).isCompatibleWith(MediaType.valueOf("text/csv")) ?
+				OrderExporter.Format.CSV
+				: OrderExporter.Format.NDJSON;
+		
+		// the body is read straight from the request stream, one line at a time, while the rows are inserted
+		InputStream body = "gzip".equalsIgnoreCase(contentEncoding) ?
+				new GZIPInputStream(request.getInputStream(), 8192)
+				: request.getInputStream();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			// as with POST, orders without an owner belong to the admin
+			return ResponseEntity.ok(orderImporter.importOrders(format, reader, principal.getName()));
+		}
+	}
+	
+	
 	@PutMapping("/{requestedId}")
-	private ResponseEntity<Void> putOrder(@PathVariable Long requestedId, @RequestBody Order update, Principal principal) {
+	private ResponseEntity<Void> putOrder(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody Order update,
+			Principal principal
+	) {
 
-		Optional<Order> optionalOrder = findOrder(requestedId, principal);
+		// one conditional UPDATE that keeps the owner of the order: no row affected means there is no such order
+		// or, with If-Match, that it has changed since the client read it (optimistic locking)
+		Long version = OrderETags.requiredVersion(ifMatch, requestedId);
+		int updated = orderRepository.updateById(requestedId, version, update.amount(), null, update.product(), update.quantity());
 		
-		if (optionalOrder.isEmpty()) {
-			return ResponseEntity.notFound().build();
+		if (updated == 0) {
+			return notUpdated(requestedId, version);
 		}
+		return updated(requestedId, version);
+	}
+	
+	
+	@PatchMapping(path = "/{requestedId}", consumes = OrderPatcher.MERGE_PATCH_JSON)
+	private ResponseEntity<Void> patchOrder(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody JsonNode patch,
+			Principal principal
+	) {
 		
-		Order order = optionalOrder.get();
-		String newOwner = Strings.isEmpty(order.owner()) ? principal.getName() : order.owner();
-		
-		Order updatedOrder = new Order(order.id(), update.amount(), newOwner, update.product(), update.quantity());
-		orderRepository.save(updatedOrder);
+		// one UPDATE of the columns in the patch, on any order, with the same conditions as PUT;
+		// like PUT, it keeps the owner of the order, so a patch naming one is refused rather than half applied
+		if (patch != null && patch.has("owner")) {
+			return ResponseEntity.badRequest().build();
+		}
+		Long version = OrderETags.requiredVersion(ifMatch, requestedId);
+		Patched patched;
+		try {
+			patched = orderPatcher.patch(requestedId, null, version, patch);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
 		
-		return ResponseEntity.noContent().build();
+		if (patched.rows() == 0) {
+			return notUpdated(requestedId, version);
+		}
+		// an empty patch leaves the order, its version and so its ETag as they were
+		if (!patched.changed()) {
+			return version == null ?
+					ResponseEntity.noContent().build()
+					: ResponseEntity.noContent().eTag(OrderETags.of(requestedId, version)).build();
+		}
+		return updated(requestedId, version);
+	}
+	
+	
+	// the new ETag is only known when the old version was
+	private ResponseEntity<Void> updated(Long id, Long version) {
+		orderResponseCache.evict(id);
+		ResponseEntity.HeadersBuilder<?> response = ResponseEntity.noContent();
+		if (version != null) {
+			response.eTag(OrderETags.of(id, version + 1));
+		}
+		return response.build();
 	}
 	
 	
 	@DeleteMapping("/{id}")
-	private ResponseEntity<Void> deleteOrder(@PathVariable Long id, Principal principal) {
-		// check if the order exists in the database AND the principal own the record
-		if (!orderRepository.existsById(id)) {
-			return ResponseEntity.notFound().build();
+	private ResponseEntity<Void> deleteOrder(
+			@PathVariable Long id,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			Principal principal
+	) {
+		// one conditional DELETE, as for PUT
+		Long version = OrderETags.requiredVersion(ifMatch, id);
+		if (orderRepository.removeById(id, version) == 0) {
+			return notUpdated(id, version);
 		}
-		orderRepository.deleteById(id);
+		orderResponseCache.evict(id);
 		return ResponseEntity.noContent().build();
 	}
 	
+	
+	// a failed conditional write: 412 if the order is there but at another version, 404 otherwise
+	private ResponseEntity<Void> notUpdated(Long id, Long version) {
+		return version != null && orderRepository.existsById(id) ?
+				ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()
+				: ResponseEntity.notFound().build();
+	}
+	
 	private Optional<Order> findOrder(Long requestedId, Principal principal) {
 		return orderRepository.findById(requestedId);
 	}
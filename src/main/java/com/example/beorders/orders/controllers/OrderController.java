@@ -2,88 +2,285 @@ package com.example.beorders.orders.controllers;
 
 import java.net.URI;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 
 import org.apache.logging.log4j.util.Strings;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import com.example.beorders.orders.Order;
+import com.example.beorders.orders.OrderBulkWriter;
+import com.example.beorders.orders.OrderBulkWriter.OperationType;
+import com.example.beorders.orders.OrderBulkWriter.OwnerRules;
+import com.example.beorders.orders.OrderCursor;
+import com.example.beorders.orders.OrderETags;
+import com.example.beorders.orders.OrderFields;
+import com.example.beorders.orders.OrderFilter;
+import com.example.beorders.orders.OrderFilter.ProductMatch;
+import com.example.beorders.orders.OrderPatcher;
+import com.example.beorders.orders.OrderPatcher.Patched;
+import com.example.beorders.orders.OrderQueries;
 import com.example.beorders.orders.OrderRepository;
+import com.example.beorders.orders.OrderResponseCache;
+import com.example.beorders.orders.OrderResponseCache.CachedOrder;
+import com.fasterxml.jackson.databind.JsonNode;
 
 
 @RestController
 @RequestMapping("/v1/orders")
 public class OrderController {
+	public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+	public static final String MISSING_IDS_HEADER = "X-Missing-Ids";
+	
 	private final OrderRepository orderRepository;
+	private final OrderResponseCache orderResponseCache;
+	private final OrderBulkWriter orderBulkWriter;
+	private final OrderPatcher orderPatcher;
+	private final OrderReadResponses orderReadResponses;
 	
 	
-	private OrderController(OrderRepository anOrderRepository) {
+	private OrderController(
+			OrderRepository anOrderRepository,
+			OrderResponseCache anOrderResponseCache,
+			OrderBulkWriter anOrderBulkWriter,
+			OrderPatcher anOrderPatcher,
+			OrderReadResponses anOrderReadResponses) {
 		this.orderRepository = anOrderRepository;
+		this.orderResponseCache = anOrderResponseCache;
+		this.orderBulkWriter = anOrderBulkWriter;
+		this.orderPatcher = anOrderPatcher;
+		this.orderReadResponses = anOrderReadResponses;
 	}
 
 
 	@GetMapping
-	private ResponseEntity<List<Order>> findAll(
+	private ResponseEntity<? extends List<?>> findAll(
+			@RequestParam(required = false) List<Long> ids,
+			@RequestParam(required = false) List<String> fields,
 			@RequestParam(required = false) String productType,
+			@RequestParam(required = false) Double minAmount,
+			@RequestParam(required = false) Double maxAmount,
+			@RequestParam(required = false) Integer minQuantity,
+			@RequestParam(required = false) Integer maxQuantity,
+			@RequestParam(required = false) List<String> product,
+			@RequestParam(required = false) String productSearch,
+			@RequestParam(required = false) String productMatch,
+			@RequestParam(required = false) String after,
+			@RequestParam(defaultValue = "false") boolean withTotal,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
 			Pageable pageable, Principal principal
 	) {
+		// sparse fields: '?fields=id,amount' reads and answers those properties only
+		OrderFields orderFields;
+		try {
+			orderFields = OrderFields.of(fields);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+		// an unknown property in '?sort=' is a bad request, not an error of the queries
+		if (!OrderQueries.isSortable(pageable.getSort())) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// the ETags depend on the format of the body, so the responses vary with the Accept header
+		String format = OrderFormatsConfig.preferredBinaryFormat(accept);
+		
+		// multi-get: '?ids=1,2,3' answers those orders, in that order, with one query
+		if (ids != null) {
+			// TODO implement a better solution for testing ADMIN roles instead of such a naive one
+			String owner = principal.getName().equals("Admin") ? null : principal.getName();
+			return orderReadResponses.findAllById(ids, owner, orderFields, format);
+		}
+		
+		// filters: amount/quantity ranges, sets of products, product search, all applied by the database
+		// (and so are the sparse fields, whose narrower SELECT only the filter queries know how to build)
+		if (minAmount != null || maxAmount != null || minQuantity != null || maxQuantity != null || product != null
+				|| productSearch != null || !orderFields.isAll()) {
+			List<String> products = new ArrayList<>(product == null ? List.of() : product);
+			if (!Strings.isBlank(productType)) {
+				products.add(productType);
+			}
+			// TODO implement a better solution for testing ADMIN roles instead of such a naive one
+			List<String> owners = principal.getName().equals("Admin") ? List.of() : List.of(principal.getName());
+			OrderFilter filter;
+			try {
+				filter = new OrderFilter(minAmount, maxAmount, minQuantity, maxQuantity, products, owners,
+						productSearch, productMatch == null ? null : ProductMatch.valueOf(productMatch.toUpperCase(Locale.ROOT)));
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest().build();
+			}
+			return orderReadResponses.findAllFiltered(filter, orderFields, after, pageable, withTotal, format);
+		}
+		
+		// cursor mode: '?after=<token>' (or a blank '?after=' to start from the beginning)
+		if (after != null) {
+			return findAllAfter(productType, after, pageable.getPageSize(), withTotal, principal, format);
+		}
+		
 		PageRequest pageRequest = PageRequest.of(
 						pageable.getPageNumber(),
 						pageable.getPageSize(),
 						pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))
 					);
 		
+		// the list queries only read the requested rows: no COUNT(*) runs behind the scenes
+		List<Order> orders;
+		
 		// TODO implement a better solution for testing ADMIN roles
 		// instead of such a naive one
 		if (principal.getName().equals("Admin")) {
-			
-			Page<Order> adminPage = Strings.isBlank(productType) ?
-					orderRepository.findAll(pageRequest)
+			orders = Strings.isBlank(productType) ?
+					orderRepository.findAllBy(pageRequest)
 					: orderRepository.findByProductIgnoreCase(productType, pageRequest);
-
-			return ResponseEntity.ok(adminPage.getContent());
+		} else {
+			String productOwner = principal.getName();
+			orders = Strings.isBlank(productType) ?
+					orderRepository.findByOwner(productOwner, pageRequest)
+					: orderRepository.findByOwnerAndProductIgnoreCase(productOwner, productType, pageRequest);
 		}
 		
-		String productOwner = principal.getName();
-		Page<Order> page = Strings.isBlank(productType) ?
-				orderRepository.findByOwner(productOwner, pageRequest)
-				: orderRepository.findByOwnerAndProductIgnoreCase(productOwner, productType, pageRequest);
+		// when If-None-Match matches the ETag, Spring answers 304 without encoding the orders
+		return OrderReadResponses.list(orders, total(withTotal, productType, principal), null, format).body(orders);
+	}
+	
+	
+	private ResponseEntity<List<Order>> findAllAfter(String productType, String after, int pageSize, boolean withTotal, Principal principal, String format) {
+		Optional<OrderCursor> optionalCursor = OrderCursor.decode(after);
+		
+		if (optionalCursor.isEmpty()) {
+			return ResponseEntity.badRequest().build();
+		}
 		
-		return ResponseEntity.ok(page.getContent());
+		OrderCursor cursor = optionalCursor.get();
+		List<Order> orders;
+		
+		// TODO implement a better solution for testing ADMIN roles
+		// instead of such a naive one
+		if (principal.getName().equals("Admin")) {
+			orders = Strings.isBlank(productType) ?
+					orderRepository.findAllAfter(cursor.amount(), cursor.id(), pageSize)
+					: orderRepository.findByProductIgnoreCaseAfter(productType, cursor.amount(), cursor.id(), pageSize);
+		} else {
+			String productOwner = principal.getName();
+			orders = Strings.isBlank(productType) ?
+					orderRepository.findByOwnerAfter(productOwner, cursor.amount(), cursor.id(), pageSize)
+					: orderRepository.findByOwnerAndProductIgnoreCaseAfter(productOwner, productType, cursor.amount(), cursor.id(), pageSize);
+		}
+		
+		String nextCursor = OrderCursor.next(orders, pageSize).map(OrderCursor::encode).orElse(null);
+		return OrderReadResponses.list(orders, total(withTotal, productType, principal), nextCursor, format).body(orders);
+	}
+	
+	
+	// the total is read from the per-owner/per-product counters, never from a count scan; null when not asked for
+	private Long total(boolean withTotal, String productType, Principal principal) {
+		if (!withTotal) {
+			return null;
+		}
+		String owner = principal.getName().equals("Admin") ? null : principal.getName();
+		String product = Strings.isBlank(productType) ? null : productType;
+		return orderRepository.countOrders(owner, product);
 	}
 	
 	
 	@GetMapping("/{requestedId}")
-	private ResponseEntity<Order> findById(@PathVariable Long requestedId, Principal principal) {
+	private ResponseEntity<?> findById(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+			Principal principal
+	) {
 		
-		Order order = findOrder(requestedId, principal);
+		// the cache holds JSON: CBOR and Smile are encoded from the stored order by their converters
+		String format = OrderFormatsConfig.preferredBinaryFormat(accept);
+		if (format != null) {
+			Optional<Order> storedOrder = orderRepository.findById(requestedId);
+			if (storedOrder.isEmpty() || !isVisible(storedOrder.get().owner(), principal)) {
+				return ResponseEntity.notFound().build();
+			}
+			return ResponseEntity.ok()
+					.varyBy(HttpHeaders.ACCEPT)
+					.eTag(OrderETags.of(storedOrder.get(), format))
+					.body(storedOrder.get());
+		}
+		
+		CachedOrder order = orderResponseCache.get(requestedId);
+		
+		if (order == null) {
+			long stamp = orderResponseCache.stamp();
+			Optional<Order> storedOrder = orderRepository.findById(requestedId);
+			if (storedOrder.isEmpty() || !isVisible(storedOrder.get().owner(), principal)) {
+				return ResponseEntity.notFound().build();
+			}
+			// the client has this version already: no need to encode it just to answer 304
+			if (OrderETags.matches(ifNoneMatch, OrderETags.of(storedOrder.get()))) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+						.varyBy(HttpHeaders.ACCEPT)
+						.eTag(OrderETags.of(storedOrder.get()))
+						.build();
+			}
+			order = orderResponseCache.put(storedOrder.get(), stamp);
+		}
+		
+		if (!isVisible(order.owner(), principal)) {
+			return ResponseEntity.notFound().build();
+		}
 		
-		return order == null ?
-				ResponseEntity.notFound().build()
-				: ResponseEntity.ok(order);		
+		// when If-None-Match matches the ETag, Spring answers 304 without the body
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.varyBy(HttpHeaders.ACCEPT)
+				.eTag(OrderETags.of(requestedId, order.version()))
+				.body(order.json());
+	}
+	
+	
+	// TODO implement a better solution for testing ADMIN roles
+	// instead of such a naive one
+	private static boolean isVisible(String owner, Principal principal) {
+		return principal.getName().equals("Admin") || principal.getName().equals(owner);
 	}
 	
 	
-	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	@GetMapping(path = "/{requestedId}", params = "fields")
+	private ResponseEntity<Map<String, Object>> findFieldsById(
+			@PathVariable Long requestedId,
+			@RequestParam List<String> fields,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+			Principal principal
+	) {
+		// TODO implement a better solution for testing ADMIN roles instead of such a naive one
+		String owner = principal.getName().equals("Admin") ? null : principal.getName();
+		return orderReadResponses.findFieldsById(requestedId, owner, fields, OrderFormatsConfig.preferredBinaryFormat(accept));
+	}
+	
+	
+	@PostMapping(consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, OrderFormatsConfig.APPLICATION_SMILE_VALUE })
 	private ResponseEntity<Void> createOrder(@RequestBody Order newOrder, UriComponentsBuilder ucb, Principal principal) {
 
 		String newOwner = Strings.isEmpty(newOrder.owner()) ? principal.getName() : newOrder.owner();
-		Order savedOrderWithOwner = new Order(null, newOrder.amount(), newOwner, newOrder.product(), newOrder.quantity());
+		Order savedOrderWithOwner = new Order(null, newOrder.amount(), newOwner, newOrder.product(), newOrder.quantity(), null);
 		Order savedOrder = orderRepository.save(savedOrderWithOwner);
 		URI locationOfSavedOrder = ucb
 				.path("/v1/orders/{newOrderId}")
@@ -93,50 +290,133 @@ public class OrderController {
 	}
 	
 	
+	@PostMapping(path = "/_bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, OrderFormatsConfig.APPLICATION_SMILE_VALUE })
+	private ResponseEntity<List<OrderBulkWriter.Result>> bulk(@RequestBody List<OrderBulkWriter.Operation> operations, Principal principal) {
+		
+		if (operations.size() > orderBulkWriter.maxOperations()) {
+			return ResponseEntity.badRequest().build();
+		}
+		
+		// the same rules as POST, PUT and DELETE: the Admin can touch any order, the others only their own
+		String principalName = principal.getName();
+		OwnerRules rules = principalName.equals("Admin") ?
+				new OwnerRules(principalName, null, false)
+				: new OwnerRules(principalName, principalName, false);
+		
+		List<OrderBulkWriter.Result> results = orderBulkWriter.execute(operations, rules);
+		
+		// evict only once the transaction is committed, or a concurrent read could cache the old order again
+		results.stream()
+				.filter(result -> result.op() != OperationType.CREATE && result.status() == HttpStatus.NO_CONTENT.value())
+				.forEach(result -> orderResponseCache.evict(result.id()));
+		
+		return ResponseEntity.ok(results);
+	}
+	
+	
 	@PutMapping("/{requestedId}")
-	private ResponseEntity<Void> putOrder(@PathVariable Long requestedId, @RequestBody Order update, Principal principal) {
+	private ResponseEntity<Void> putOrder(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody Order update,
+			Principal principal
+	) {
 
-		Order order = findOrder(requestedId, principal);
+		String newOwner = Strings.isEmpty(update.owner()) ? principal.getName() : update.owner();
+		// with If-Match, only the version the client has read is updated (optimistic locking)
+		Long version = OrderETags.requiredVersion(ifMatch, requestedId);
 		
-		if (order == null) {
-			return ResponseEntity.notFound().build();
+		// one conditional UPDATE: no row affected means the order does not exist, belongs to someone else or has changed
+		// TODO implement a better solution for testing ADMIN roles instead of such a naive one
+		boolean admin = principal.getName().equals("Admin");
+		int updated = admin ?
+				orderRepository.updateById(requestedId, version, update.amount(), newOwner, update.product(), update.quantity())
+				: orderRepository.updateByIdAndOwner(requestedId, principal.getName(), version, update.amount(), newOwner, update.product(), update.quantity());
+		
+		if (updated == 0) {
+			return notUpdated(requestedId, version, principal);
 		}
+		return updated(requestedId, version);
+	}
+	
+	
+	@PatchMapping(path = "/{requestedId}", consumes = OrderPatcher.MERGE_PATCH_JSON)
+	private ResponseEntity<Void> patchOrder(
+			@PathVariable Long requestedId,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody JsonNode patch,
+			Principal principal
+	) {
 		
-		String newOwner = Strings.isEmpty(update.owner()) ? principal.getName() : update.owner();
-		Order updatedOrder = new Order(order.id(), update.amount(), newOwner, update.product(), update.quantity());
-		orderRepository.save(updatedOrder);
+		// one UPDATE of the columns in the patch, with the same conditions as PUT
+		// TODO implement a better solution for testing ADMIN roles instead of such a naive one
+		Long version = OrderETags.requiredVersion(ifMatch, requestedId);
+		String requiredOwner = principal.getName().equals("Admin") ? null : principal.getName();
+		Patched patched;
+		try {
+			patched = orderPatcher.patch(requestedId, requiredOwner, version, patch);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
 		
-		return ResponseEntity.noContent().build();
+		if (patched.rows() == 0) {
+			return notUpdated(requestedId, version, principal);
+		}
+		// an empty patch leaves the order, its version and so its ETag as they were
+		if (!patched.changed()) {
+			return version == null ?
+					ResponseEntity.noContent().build()
+					: ResponseEntity.noContent().eTag(OrderETags.of(requestedId, version)).build();
+		}
+		return updated(requestedId, version);
+	}
+	
+	
+	// the new ETag is only known when the old version was
+	private ResponseEntity<Void> updated(Long id, Long version) {
+		orderResponseCache.evict(id);
+		ResponseEntity.HeadersBuilder<?> response = ResponseEntity.noContent();
+		if (version != null) {
+			response.eTag(OrderETags.of(id, version + 1));
+		}
+		return response.build();
 	}
 	
 	
 	@DeleteMapping("/{id}")
-	private ResponseEntity<Void> deleteOrder(@PathVariable Long id, Principal principal) {
+	private ResponseEntity<Void> deleteOrder(
+			@PathVariable Long id,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			Principal principal
+	) {
 		
+		// one conditional DELETE, as for PUT
 		// TODO implement a better solution instead of such a naive one
-		if (principal.getName().equals("Admin")) {
-			// check if the order exists in the database
-			if (!orderRepository.existsById(id)) {
-				return ResponseEntity.notFound().build();
-			}
-			orderRepository.deleteById(id);
-			return ResponseEntity.noContent().build();
-		}
+		Long version = OrderETags.requiredVersion(ifMatch, id);
+		int deleted = principal.getName().equals("Admin") ?
+				orderRepository.removeById(id, version)
+				: orderRepository.removeByIdAndOwner(id, principal.getName(), version);
 		
-		// check if the order exists in the database AND the principal owns the record
-		if (!orderRepository.existsByIdAndOwner(id, principal.getName())) {
-			return ResponseEntity.notFound().build();
+		if (deleted == 0) {
+			return notUpdated(id, version, principal);
 		}
-		orderRepository.deleteById(id);
+		orderResponseCache.evict(id);
 		return ResponseEntity.noContent().build();
 	}
 	
 	
-	private Order findOrder(Long requestedId, Principal principal) {
-		if (principal.getName().equals("Admin")) {
-			return orderRepository.findById(requestedId).orElse(null);
+	// a failed conditional write: 412 if the order is there but at another version, 404 otherwise.
+	// Only this failure path pays for a second statement
+	private ResponseEntity<Void> notUpdated(Long id, Long version, Principal principal) {
+		if (version == null) {
+			return ResponseEntity.notFound().build();
 		}
-		return orderRepository.findByIdAndOwner(requestedId, principal.getName());
+		boolean exists = principal.getName().equals("Admin") ?
+				orderRepository.existsById(id)
+				: orderRepository.existsByIdAndOwner(id, principal.getName());
+		return exists ?
+				ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()
+				: ResponseEntity.notFound().build();
 	}
 		
 }
@@ -0,0 +1,74 @@
+package com.example.beorders.orders.controllers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The binary encodings the order endpoints speak next to JSON: CBOR and Smile.
+ * <p>
+ * Their converters are built from the same Jackson2ObjectMapperBuilder as the JSON one,
+ * so that an order has the same shape in every format; they take the place of the
+ * converters Spring MVC would otherwise register with a default ObjectMapper, after JSON,
+ * which stays the format of the clients that do not ask for another one.
+ */
+@Configuration
+class OrderFormatsConfig {
+	static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+	// the binary media types, and the names that tell their ETags apart from the JSON ones
+	private static final Map<MediaType, String> BINARY_FORMATS = Map.of(
+			MediaType.APPLICATION_CBOR, "cbor",
+			MediaType.parseMediaType(APPLICATION_SMILE_VALUE), "smile");
+
+
+	@Bean
+	MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+	}
+
+
+	@Bean
+	MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+	}
+
+
+	/**
+	 * The binary format the Accept header prefers, "cbor" or "smile", if its media type with
+	 * the highest quality (the first one among equals) is CBOR or Smile; null otherwise.
+	 */
+	static String preferredBinaryFormat(String accept) {
+		if (accept == null || accept.isBlank()) {
+			return null;
+		}
+		List<MediaType> acceptedTypes;
+		try {
+			acceptedTypes = new ArrayList<>(MediaType.parseMediaTypes(accept));
+		} catch (InvalidMediaTypeException e) {
+			return null;
+		}
+		if (acceptedTypes.isEmpty()) {
+			return null;
+		}
+		acceptedTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+		MediaType preferredType = acceptedTypes.getFirst();
+		return BINARY_FORMATS.entrySet().stream()
+				.filter(format -> format.getKey().equalsTypeAndSubtype(preferredType))
+				.map(Map.Entry::getValue)
+				.findFirst()
+				.orElse(null);
+	}
+}
@@ -0,0 +1,143 @@
+package com.example.beorders.orders.controllers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.example.beorders.orders.Order;
+import com.example.beorders.orders.OrderCursor;
+import com.example.beorders.orders.OrderETags;
+import com.example.beorders.orders.OrderFields;
+import com.example.beorders.orders.OrderFilter;
+import com.example.beorders.orders.OrderRepository;
+
+/**
+ * The reads that OrderController and AdminOrderController answer the same way, but for
+ * the owner they are scoped to: multi-get, filters and sparse fields. The owner is null
+ * for the admin, who reads the orders of every owner; the format is the binary one the
+ * client asked for, which the ETags are made for (null for JSON).
+ */
+@Component
+class OrderReadResponses {
+	private final OrderRepository orderRepository;
+	private final int maxIds;
+
+
+	OrderReadResponses(
+			OrderRepository anOrderRepository,
+			@Value("${beorders.multi-get.max-ids:100}") int maxIds) {
+		this.orderRepository = anOrderRepository;
+		this.maxIds = maxIds;
+	}
+
+
+	// the ids that are not found, or are orders of another owner, are listed in the X-Missing-Ids header
+	ResponseEntity<List<?>> findAllById(List<Long> ids, String owner, OrderFields fields, String format) {
+		Set<Long> requestedIds = ids.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+		if (requestedIds.size() > maxIds) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		Map<Long, Order> foundOrders = orderRepository.findByIdIn(requestedIds, owner, fields).stream()
+				.collect(Collectors.toMap(Order::id, Function.identity()));
+		List<Order> orders = new ArrayList<>(foundOrders.size());
+		List<String> missingIds = new ArrayList<>();
+		for (Long id : requestedIds) {
+			Order order = foundOrders.get(id);
+			if (order == null) {
+				missingIds.add(id.toString());
+			} else {
+				orders.add(order);
+			}
+		}
+
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+		if (!missingIds.isEmpty()) {
+			response.header(OrderController.MISSING_IDS_HEADER, String.join(",", missingIds));
+		}
+		return response.eTag(OrderETags.of(orders, format)).body(project(orders, fields));
+	}
+
+
+	// the owners are those of the filter; the total, when asked for, comes from the counters unless the filter has a range
+	ResponseEntity<List<?>> findAllFiltered(OrderFilter filter, OrderFields fields, String after, Pageable pageable, boolean withTotal, String format) {
+		List<Order> orders;
+		String nextCursor = null;
+		if (after != null) {
+			Optional<OrderCursor> cursor = OrderCursor.decode(after);
+			if (cursor.isEmpty()) {
+				return ResponseEntity.badRequest().build();
+			}
+			orders = orderRepository.findByFilterAfter(filter, fields, cursor.get(), pageable.getPageSize());
+			nextCursor = OrderCursor.next(orders, pageable.getPageSize()).map(OrderCursor::encode).orElse(null);
+		} else {
+			PageRequest pageRequest = PageRequest.of(
+							pageable.getPageNumber(),
+							pageable.getPageSize(),
+							pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))
+						);
+			orders = orderRepository.findByFilter(filter, fields, pageRequest);
+		}
+
+		Long total = withTotal ? orderRepository.countOrders(filter) : null;
+		return list(orders, total, nextCursor, format).body(project(orders, fields));
+	}
+
+
+	/**
+	 * The response to a list of orders, with the X-Total-Count header and the next cursor
+	 * when they are not null, and an ETag that covers them along with the orders.
+	 */
+	static ResponseEntity.BodyBuilder list(List<Order> orders, Long total, String nextCursor, String format) {
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+		if (total != null) {
+			response.header(OrderController.TOTAL_COUNT_HEADER, String.valueOf(total));
+		}
+		if (nextCursor != null) {
+			response.header(OrderCursor.NEXT_CURSOR_HEADER, nextCursor);
+		}
+		return response.eTag(OrderETags.of(orders, format, total, nextCursor));
+	}
+
+
+	// sparse fields: the order is read, with those columns only, past the cache of the encoded orders
+	ResponseEntity<Map<String, Object>> findFieldsById(Long id, String owner, List<String> fields, String format) {
+		OrderFields orderFields;
+		try {
+			orderFields = OrderFields.of(fields);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		Optional<Order> order = orderRepository.findFieldsById(id, owner, orderFields);
+		if (order.isEmpty()) {
+			return ResponseEntity.notFound().build();
+		}
+
+		// when If-None-Match matches the ETag, Spring answers 304 without the body
+		return ResponseEntity.ok()
+				.varyBy(HttpHeaders.ACCEPT)
+				.eTag(OrderETags.of(order.get(), format))
+				.body(orderFields.project(order.get()));
+	}
+
+
+	// the orders read with sparse fields hold nulls in place of the others: only the requested ones are sent
+	private static List<?> project(List<Order> orders, OrderFields fields) {
+		return fields.isAll() ? orders : orders.stream().map(fields::project).toList();
+	}
+}
@@ -0,0 +1,52 @@
+package com.example.beorders.security;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.beorders.Role;
+
+
+@RestController
+@RequestMapping("/v1/auth")
+public class AccessTokenController {
+	private static final String ROLE_PREFIX = "ROLE_";
+
+	private final AccessTokenService accessTokenService;
+
+
+	private AccessTokenController(AccessTokenService anAccessTokenService) {
+		this.accessTokenService = anAccessTokenService;
+	}
+
+
+	// exchanges HTTP Basic credentials for an access token
+	@PostMapping("/token")
+	private ResponseEntity<AccessTokenService.AccessToken> createToken(Authentication authentication) {
+		
+		// a token cannot be used to get another one: that would extend it forever
+		if (authentication instanceof PreAuthenticatedAuthenticationToken) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+		
+		Optional<Role> role = authentication.getAuthorities().stream()
+				.map(GrantedAuthority::getAuthority)
+				.filter(authority -> authority.startsWith(ROLE_PREFIX))
+				.map(authority -> authority.substring(ROLE_PREFIX.length()))
+				// an authority that is not one of our roles cannot go into a token: it is skipped
+				.flatMap(name -> Arrays.stream(Role.values()).filter(aRole -> aRole.name().equals(name)))
+				.findFirst();
+		
+		return role.isEmpty() ?
+				ResponseEntity.status(HttpStatus.FORBIDDEN).build()
+				: ResponseEntity.ok(accessTokenService.issue(authentication.getName(), role.get()));
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.beorders.security;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.beorders.diagnostics.ServerTiming;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Authenticates requests carrying an {@code Authorization: Bearer <token>} header
+ * issued by {@link AccessTokenService}. Requests without a bearer token are left
+ * to the other authentication mechanisms (HTTP Basic).
+ */
+class AccessTokenFilter extends OncePerRequestFilter {
+	private static final String BEARER_PREFIX = "Bearer ";
+
+	private final AccessTokenService accessTokenService;
+	private final SecurityContextHolderStrategy securityContextHolderStrategy = SecurityContextHolder.getContextHolderStrategy();
+	private final SecurityContextRepository securityContextRepository = new RequestAttributeSecurityContextRepository();
+
+
+	AccessTokenFilter(AccessTokenService anAccessTokenService) {
+		this.accessTokenService = anAccessTokenService;
+	}
+
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+		if (header == null || !header.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		long start = ServerTiming.start();
+		Optional<Authentication> authentication = accessTokenService.verify(header.substring(BEARER_PREFIX.length()).trim());
+		ServerTiming.stop(ServerTiming.Phase.AUTH, start);
+		if (authentication.isEmpty()) {
+			securityContextHolderStrategy.clearContext();
+			response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+			response.sendError(HttpStatus.UNAUTHORIZED.value());
+			return;
+		}
+
+		SecurityContext context = securityContextHolderStrategy.createEmptyContext();
+		context.setAuthentication(authentication.get());
+		securityContextHolderStrategy.setContext(context);
+		securityContextRepository.saveContext(context, request, response);
+
+		filterChain.doFilter(request, response);
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.beorders.security;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import com.example.beorders.diagnostics.ServerTiming;
+
+/**
+ * Authenticates username/password requests with the wrapped provider (BCrypt),
+ * unless the very same credentials are found in the {@link VerifiedCredentialCache}.
+ * Failed attempts are never cached.
+ */
+class CachingAuthenticationProvider implements AuthenticationProvider {
+	private final AuthenticationProvider delegate;
+	private final VerifiedCredentialCache cache;
+
+
+	CachingAuthenticationProvider(AuthenticationProvider aDelegate, VerifiedCredentialCache aCache) {
+		this.delegate = aDelegate;
+		this.cache = aCache;
+	}
+
+
+	@Override
+	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+		long start = ServerTiming.start();
+		try {
+			return cachedOrVerified(authentication);
+		} finally {
+			ServerTiming.stop(ServerTiming.Phase.AUTH, start);
+		}
+	}
+
+
+	private Authentication cachedOrVerified(Authentication authentication) {
+		if (authentication.getCredentials() == null) {
+			return delegate.authenticate(authentication);
+		}
+
+		String username = authentication.getName();
+		String password = authentication.getCredentials().toString();
+
+		UserDetails cachedUser = cache.getVerifiedUser(username, password);
+		if (cachedUser != null) {
+			UsernamePasswordAuthenticationToken result = UsernamePasswordAuthenticationToken.authenticated(
+					cachedUser, authentication.getCredentials(), cachedUser.getAuthorities());
+			result.setDetails(authentication.getDetails());
+			return result;
+		}
+
+		Authentication result = delegate.authenticate(authentication);
+		if (result != null && result.getPrincipal() instanceof UserDetails verifiedUser) {
+			cache.put(username, password, verifiedUser);
+		}
+		return result;
+	}
+
+
+	@Override
+	public boolean supports(Class<?> authentication) {
+		return delegate.supports(authentication);
+	}
+}
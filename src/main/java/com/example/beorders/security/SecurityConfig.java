@@ -1,7 +1,14 @@
 package com.example.beorders.security;
 
+import java.time.Clock;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.core.userdetails.User;
@@ -11,6 +18,7 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
 import com.example.beorders.Role;
 
@@ -18,16 +26,29 @@ import com.example.beorders.Role;
 class SecurityConfig {
 
 	@Bean
-	SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+	SecurityFilterChain filterChain(HttpSecurity http, AccessTokenService accessTokenService) throws Exception {
 		http
 		.authorizeHttpRequests(request -> request
-				.requestMatchers("/v1/admin/orders/**")
+				.requestMatchers("/v1/admin/orders/**", "/v1/admin/slow-queries")
 				.hasAnyRole(Role.ADMIN.name()))
 				.httpBasic(Customizer.withDefaults())
 		.authorizeHttpRequests(request -> request
 				.requestMatchers("/v1/orders/**")
 				.hasAnyRole(Role.ADMIN.name(), Role.ORDER_OWNER.name()))
 				.httpBasic(Customizer.withDefaults())
+		.authorizeHttpRequests(request -> request
+				.requestMatchers(HttpMethod.POST, "/v1/auth/token")
+				.authenticated())
+				.httpBasic(Customizer.withDefaults())
+		// the health check is for the load balancer, the metrics only for admins (and the Prometheus scraper using their credentials)
+		.authorizeHttpRequests(request -> request
+				.requestMatchers("/actuator/health")
+				.permitAll()
+				.requestMatchers("/actuator/**")
+				.hasAnyRole(Role.ADMIN.name()))
+				.httpBasic(Customizer.withDefaults())
+		// bearer tokens are checked before HTTP Basic, so that they never reach BCrypt
+		.addFilterBefore(new AccessTokenFilter(accessTokenService), BasicAuthenticationFilter.class)
 		.csrf(csrf -> csrf.disable());
 
 		return http.build();
@@ -53,6 +74,36 @@ class SecurityConfig {
 	}
 	
 	
+	@Bean
+	VerifiedCredentialCache verifiedCredentialCache(
+			UserDetailsService userDetailsService,
+			@Value("${beorders.security.credential-cache.time-to-live:5m}") Duration timeToLive,
+			@Value("${beorders.security.credential-cache.max-size:10000}") int maxSize) {
+		return new VerifiedCredentialCache(userDetailsService, timeToLive, maxSize);
+	}
+	
+	
+	@Bean
+	AccessTokenService accessTokenService(
+			@Value("${beorders.security.token.secret:}") String secret,
+			@Value("${beorders.security.token.time-to-live:15m}") Duration timeToLive) {
+		return new AccessTokenService(secret, timeToLive, Clock.systemUTC());
+	}
+	
+	
+	// BCrypt is deliberately slow: only credentials that are not in the cache go through it
+	@Bean
+	AuthenticationProvider authenticationProvider(
+			UserDetailsService userDetailsService,
+			PasswordEncoder passwordEncoder,
+			VerifiedCredentialCache verifiedCredentialCache) {
+		DaoAuthenticationProvider bcryptProvider = new DaoAuthenticationProvider();
+		bcryptProvider.setUserDetailsService(userDetailsService);
+		bcryptProvider.setPasswordEncoder(passwordEncoder);
+		return new CachingAuthenticationProvider(bcryptProvider, verifiedCredentialCache);
+	}
+	
+	
 	private UserDetails createUser(String username, String password, String role, PasswordEncoder passwordEncoder) {
 		return User
 			.builder()
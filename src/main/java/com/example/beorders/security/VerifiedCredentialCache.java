@@ -0,0 +1,191 @@
+package com.example.beorders.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounded, time-limited cache of the (username, password) pairs that BCrypt has
+ * already verified, so that a client sending the same HTTP Basic credentials on
+ * every call pays for the hashing once per time-to-live instead of once per call.
+ * <p>
+ * Passwords are never stored: entries keep an HMAC of them, keyed with a secret
+ * that lives only in this process. A hit is trusted only if the user still has
+ * the password hash and the roles it had when the entry was created, so changing
+ * either of them invalidates the cached credentials straight away.
+ * <p>
+ * Its meters use the usual cache meter names, tagged {@code cache=verified-credentials}.
+ */
+class VerifiedCredentialCache implements MeterBinder {
+	private static final String DIGEST_ALGORITHM = "HmacSHA256";
+	private static final String CACHE_NAME = "verified-credentials";
+
+	private record Entry(byte[] digest, String encodedPassword, Collection<? extends GrantedAuthority> authorities, long expiresAt) {
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final UserDetailsService userDetailsService;
+	private final SecretKeySpec digestKey;
+	private final long timeToLiveNanos;
+	private final int maxSize;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	VerifiedCredentialCache(UserDetailsService aUserDetailsService, Duration timeToLive, int maxSize) {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+
+		this.userDetailsService = aUserDetailsService;
+		this.digestKey = new SecretKeySpec(key, DIGEST_ALGORITHM);
+		this.timeToLiveNanos = timeToLive.toNanos();
+		this.maxSize = maxSize;
+	}
+
+
+	/**
+	 * Returns the current details of the user if these credentials have already been
+	 * verified (and nothing changed since then), null if they must be verified again.
+	 */
+	UserDetails getVerifiedUser(String username, String password) {
+		Entry entry = entries.get(username);
+		if (entry == null || !MessageDigest.isEqual(entry.digest(), digest(username, password))) {
+			misses.increment();
+			return null;
+		}
+
+		UserDetails user = System.nanoTime() - entry.expiresAt() > 0 ? null : currentUser(username);
+		if (!isUnchanged(entry, user)) {
+			entries.remove(username, entry);
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		return user;
+	}
+
+
+	void put(String username, String password, UserDetails verifiedUser) {
+		if (entries.size() >= maxSize && !entries.containsKey(username)) {
+			makeRoom();
+		}
+		entries.put(username, new Entry(
+				digest(username, password),
+				verifiedUser.getPassword(),
+				verifiedUser.getAuthorities(),
+				System.nanoTime() + timeToLiveNanos));
+	}
+
+
+	long hits() {
+		return hits.sum();
+	}
+
+
+	long misses() {
+		return misses.sum();
+	}
+
+
+	long evictions() {
+		return evictions.sum();
+	}
+
+
+	int size() {
+		return entries.size();
+	}
+
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("cache.gets", this, VerifiedCredentialCache::hits)
+				.tags("cache", CACHE_NAME, "result", "hit")
+				.description("The number of authentications that skipped BCrypt")
+				.register(registry);
+		FunctionCounter.builder("cache.gets", this, VerifiedCredentialCache::misses)
+				.tags("cache", CACHE_NAME, "result", "miss")
+				.description("The number of authentications that went through BCrypt")
+				.register(registry);
+		FunctionCounter.builder("cache.evictions", this, VerifiedCredentialCache::evictions)
+				.tags("cache", CACHE_NAME)
+				.description("The number of credentials dropped to make room for others")
+				.register(registry);
+		Gauge.builder("cache.size", this, VerifiedCredentialCache::size)
+				.tags("cache", CACHE_NAME)
+				.description("The number of credentials in the cache")
+				.register(registry);
+	}
+
+
+	private UserDetails currentUser(String username) {
+		try {
+			return userDetailsService.loadUserByUsername(username);
+		} catch (UsernameNotFoundException e) {
+			// the user has been removed: the cached credentials are no longer valid
+			return null;
+		}
+	}
+
+
+	private boolean isUnchanged(Entry entry, UserDetails user) {
+		return user != null
+				&& user.isEnabled()
+				&& user.isAccountNonLocked()
+				&& user.isAccountNonExpired()
+				&& user.isCredentialsNonExpired()
+				&& entry.encodedPassword().equals(user.getPassword())
+				&& new HashSet<>(entry.authorities()).equals(new HashSet<>(user.getAuthorities()));
+	}
+
+
+	// drops the expired entries first, then whatever comes first if that was not enough
+	private void makeRoom() {
+		long now = System.nanoTime();
+		entries.values().removeIf(entry -> now - entry.expiresAt() > 0);
+
+		Iterator<String> usernames = entries.keySet().iterator();
+		while (entries.size() >= maxSize && usernames.hasNext()) {
+			usernames.next();
+			usernames.remove();
+			evictions.increment();
+		}
+	}
+
+
+	private byte[] digest(String username, String password) {
+		try {
+			Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+			mac.init(digestKey);
+			mac.update(username.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+			return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+		}
+	}
+}
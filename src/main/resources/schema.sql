@@ -1,8 +1,44 @@
 CREATE TABLE BE_ORDER
 (
-	ID       BIGINT       GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-	AMOUNT   NUMBER       NOT NULL DEFAULT 0,
-	OWNER    VARCHAR(256) NOT NULL,
-	PRODUCT  VARCHAR(256) NOT NULL,
-	QUANTITY NUMBER       NOT NULL DEFAULT 0
+	ID          BIGINT       GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+	AMOUNT      NUMBER       NOT NULL DEFAULT 0,
+	OWNER       VARCHAR(256) NOT NULL,
+	PRODUCT     VARCHAR(256) NOT NULL,
+	QUANTITY    NUMBER       NOT NULL DEFAULT 0,
+	-- case-folded copy of PRODUCT: H2 cannot index UPPER(PRODUCT) directly,
+	-- so the case-insensitive product lookups filter on this column instead
+	PRODUCT_KEY VARCHAR(256) INVISIBLE GENERATED ALWAYS AS (UPPER(PRODUCT)),
+	-- bumped by every update: the ETag of the order, checked by If-Match (see OrderETags)
+	VERSION     BIGINT       NOT NULL DEFAULT 0
 );
+
+-- every access path filters on OWNER and/or PRODUCT_KEY and sorts by AMOUNT:
+-- the trailing ID makes the (AMOUNT, ID) keyset cursors a plain range scan
+CREATE INDEX BE_ORDER_OWNER_AMOUNT_ID       ON BE_ORDER(OWNER, AMOUNT, ID);
+CREATE INDEX BE_ORDER_PRODUCT_KEY_AMOUNT_ID ON BE_ORDER(PRODUCT_KEY, AMOUNT, ID);
+CREATE INDEX BE_ORDER_AMOUNT_ID             ON BE_ORDER(AMOUNT, ID);
+
+
+-- number of orders per (OWNER, PRODUCT_KEY), kept up to date by OrderCountTrigger:
+-- the list endpoints read their totals from here instead of running COUNT(*) over BE_ORDER.
+-- Each counter is spread over STRIPE rows, summed on read, so that concurrent writers of
+-- the same owner and product (importer, bulk batches) do not all wait on one row lock
+CREATE TABLE BE_ORDER_COUNT
+(
+	OWNER       VARCHAR(256) NOT NULL,
+	PRODUCT_KEY VARCHAR(256) NOT NULL,
+	STRIPE      INT          NOT NULL,
+	ROW_COUNT   BIGINT       NOT NULL DEFAULT 0,
+	PRIMARY KEY (OWNER, PRODUCT_KEY, STRIPE)
+);
+
+CREATE INDEX BE_ORDER_COUNT_PRODUCT_KEY ON BE_ORDER_COUNT(PRODUCT_KEY);
+
+CREATE TRIGGER BE_ORDER_COUNT_TRIGGER AFTER INSERT, UPDATE, DELETE ON BE_ORDER
+FOR EACH ROW CALL 'com.example.beorders.orders.OrderCountTrigger';
+
+
+-- in-memory trigram index of PRODUCT_KEY behind the product searches ('productSearch'),
+-- kept up to date by ProductSearchTrigger: a LIKE '%ring%' could not use any index
+CREATE TRIGGER BE_ORDER_PRODUCT_SEARCH_TRIGGER AFTER INSERT, UPDATE, DELETE ON BE_ORDER
+FOR EACH ROW CALL 'com.example.beorders.orders.ProductSearchTrigger';
@@ -0,0 +1,183 @@
+package com.example.beorders;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes a flight recording of the load test (see {@code ./gradlew perfTestRecording}):
+ * for each controller method and each repository method, the number of calls, the
+ * latency percentiles and the rows returned, taken from the beorders.OrderOperation and
+ * beorders.OrderQuery events.
+ * <p>
+ * Each call is also matched with what the JVM recorded while it ran: the calls that
+ * overlapped a GC pause (jdk.GCPhasePause) and the time their own thread spent blocked
+ * on a monitor (jdk.JavaMonitorEnter, only recorded above the threshold of the settings).
+ * <p>
+ * Usage: {@code JfrSummary <recording.jfr> [<results file>]}.
+ */
+public class JfrSummary {
+	static final String OPERATION_EVENT = "beorders.OrderOperation";
+	static final String QUERY_EVENT = "beorders.OrderQuery";
+	private static final String GC_PAUSE_EVENT = "jdk.GCPhasePause";
+	private static final String MONITOR_EVENT = "jdk.JavaMonitorEnter";
+
+	private record Interval(Instant start, Instant end, long threadId) {
+
+		boolean overlaps(Interval other) {
+			return start.isBefore(other.end) && other.start.isBefore(end);
+		}
+
+
+		Duration overlap(Interval other) {
+			Instant from = start.isAfter(other.start) ? start : other.start;
+			Instant to = end.isBefore(other.end) ? end : other.end;
+			return from.isBefore(to) ? Duration.between(from, to) : Duration.ZERO;
+		}
+	}
+
+	private record Call(String name, Interval interval, long rows) {
+	}
+
+	private static final class Summary {
+		final Histogram latencies = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+		long rows;
+		long callsInGcPause;
+		long monitorNanos;
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: JfrSummary <recording.jfr> [<results file>]");
+			System.exit(2);
+		}
+		Path recording = Path.of(args[0]);
+
+		List<Call> operations = new ArrayList<>();
+		List<Call> queries = new ArrayList<>();
+		List<Interval> gcPauses = new ArrayList<>();
+		List<Interval> monitorWaits = new ArrayList<>();
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				switch (event.getEventType().getName()) {
+					case OPERATION_EVENT -> operations.add(new Call(event.getString("handler"), interval(event), event.getInt("rows")));
+					case QUERY_EVENT -> queries.add(new Call(event.getString("method"), interval(event), event.getLong("rows")));
+					case GC_PAUSE_EVENT -> gcPauses.add(interval(event));
+					case MONITOR_EVENT -> monitorWaits.add(interval(event));
+					default -> { }
+				}
+			}
+		}
+		gcPauses.sort(Comparator.comparing(Interval::start));
+
+		Map<String, Summary> operationSummaries = summarize(operations, gcPauses, monitorWaits);
+		Map<String, Summary> querySummaries = summarize(queries, gcPauses, monitorWaits);
+		report(recording, gcPauses, operationSummaries, querySummaries, System.out);
+		if (args.length > 1) {
+			Path resultsFile = Path.of(args[1]);
+			Files.createDirectories(resultsFile.toAbsolutePath().getParent());
+			try (PrintStream out = new PrintStream(Files.newOutputStream(resultsFile), true, StandardCharsets.UTF_8)) {
+				report(recording, gcPauses, operationSummaries, querySummaries, out);
+			}
+		}
+	}
+
+
+	private static Interval interval(RecordedEvent event) {
+		RecordedThread thread = event.getThread();
+		return new Interval(event.getStartTime(), event.getEndTime(), thread == null ? -1 : thread.getJavaThreadId());
+	}
+
+
+	private static Map<String, Summary> summarize(List<Call> calls, List<Interval> gcPauses, List<Interval> monitorWaits) {
+		// the monitor waits by thread, so that a call is only charged with the waits of its own thread
+		Map<Long, List<Interval>> waitsByThread = new TreeMap<>();
+		monitorWaits.forEach(wait -> waitsByThread.computeIfAbsent(wait.threadId(), key -> new ArrayList<>()).add(wait));
+
+		Map<String, Summary> summaries = new TreeMap<>();
+		for (Call call : calls) {
+			Summary summary = summaries.computeIfAbsent(String.valueOf(call.name()), key -> new Summary());
+			Interval interval = call.interval();
+			summary.latencies.recordValue(Math.min(Duration.between(interval.start(), interval.end()).toNanos(),
+					summary.latencies.getHighestTrackableValue()));
+			summary.rows += Math.max(call.rows(), 0);
+			if (overlapsAny(interval, gcPauses)) {
+				summary.callsInGcPause++;
+			}
+			for (Interval wait : waitsByThread.getOrDefault(interval.threadId(), List.of())) {
+				summary.monitorNanos += interval.overlap(wait).toNanos();
+			}
+		}
+		return summaries;
+	}
+
+
+	// the pauses are sorted by start: skip to the last one starting before the end of the call
+	private static boolean overlapsAny(Interval interval, List<Interval> sortedPauses) {
+		int low = 0;
+		int high = sortedPauses.size() - 1;
+		int last = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (sortedPauses.get(middle).start().isBefore(interval.end())) {
+				last = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		// the pauses do not overlap each other, so only the last one can still be running
+		return last >= 0 && sortedPauses.get(last).overlaps(interval);
+	}
+
+
+	private static void report(Path recording, List<Interval> gcPauses, Map<String, Summary> operations,
+			Map<String, Summary> queries, PrintStream out) {
+		Duration paused = gcPauses.stream().map(pause -> Duration.between(pause.start(), pause.end())).reduce(Duration.ZERO, Duration::plus);
+		out.printf("%s: %d GC pauses, %.2f ms in total%n", recording, gcPauses.size(), millis(paused.toNanos()));
+		report("operation", operations, out);
+		report("repository method", queries, out);
+	}
+
+
+	private static void report(String title, Map<String, Summary> summaries, PrintStream out) {
+		out.printf("%n%-50s %10s %10s %10s %10s %12s %10s %12s%n",
+				title, "calls", "avg ms", "p99 ms", "max ms", "rows/call", "in GC", "monitor ms");
+		summaries.forEach((name, summary) -> {
+			Histogram latencies = summary.latencies;
+			long calls = latencies.getTotalCount();
+			out.printf("%-50s %10d %10.3f %10.3f %10.3f %12.1f %10d %12.2f%n",
+					name,
+					calls,
+					millis((long) latencies.getMean()),
+					millis(latencies.getValueAtPercentile(99)),
+					millis(latencies.getMaxValue()),
+					calls == 0 ? 0.0 : summary.rows / (double) calls,
+					summary.callsInGcPause,
+					millis(summary.monitorNanos));
+		});
+	}
+
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,292 @@
+package com.example.beorders;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * End-to-end load test: boots the application on a random port, seeds orders for
+ * Alice, Cathy and Admin, then lets {@code perf.concurrency} virtual threads call
+ * the /v1/orders and /v1/admin/orders endpoints as fast as the server answers.
+ * <p>
+ * Every call is timed into an HdrHistogram per endpoint; the calls made during the
+ * warm up are thrown away. Each virtual thread waits for its answer before sending
+ * the next call (a closed model), so the latencies do not include the time the
+ * calls would have waited for a free thread: compare runs with the same concurrency.
+ * <p>
+ * Run it with {@code ./gradlew perfTest}; the settings are the {@code perf.*}
+ * system properties below, passed as Gradle properties (-Pperf.duration=PT1M).
+ */
+public class LoadTest {
+	private static final Duration WARMUP = Duration.parse(System.getProperty("perf.warmup", "PT10S"));
+	private static final Duration DURATION = Duration.parse(System.getProperty("perf.duration", "PT30S"));
+	private static final int CONCURRENCY = Integer.getInteger("perf.concurrency", 64);
+	private static final int ORDERS_PER_USER = Integer.getInteger("perf.orders-per-user", 10_000);
+	// relative weights of the operations
+	private static final String MIX = System.getProperty("perf.mix", "list=40,get=40,create=10,update=5,delete=5");
+	private static final String RESULTS_FILE = System.getProperty("perf.results-file");
+	// e.g. 'scale-large', to run against generated data (see OrderDataGenerator)
+	private static final String PROFILES = System.getProperty("perf.profiles", "");
+
+	private static final Map<String, String> PASSWORDS = Map.of("Alice", "alice", "Cathy", "cathy", "Admin", "admin");
+	private static final String[] PRODUCTS = { "Food", "Golden Ring", "Ring", "Motorbike", "Dogfood", "Fork", "Computer", "Lamp" };
+	private static final String INSERT = "INSERT INTO BE_ORDER(AMOUNT, OWNER, PRODUCT, QUANTITY) VALUES (?, ?, ?, ?)";
+
+	enum Operation { LIST, GET, CREATE, UPDATE, DELETE }
+
+	private record User(String name, String authorization, String basePath, long[] seededIds, ConcurrentLinkedQueue<Long> createdIds) {
+	}
+
+	private record Endpoint(Recorder recorder, LongAdder errors) {
+	}
+
+	private record Measurement(Histogram histogram, long errors) {
+	}
+
+	private final HttpClient httpClient;
+	private final URI baseUri;
+	private final List<User> users;
+	private final Operation[] weightedOperations;
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private volatile boolean running = true;
+
+
+	private LoadTest(HttpClient anHttpClient, URI aBaseUri, List<User> theUsers, Operation[] theWeightedOperations) {
+		this.httpClient = anHttpClient;
+		this.baseUri = aBaseUri;
+		this.users = theUsers;
+		this.weightedOperations = theWeightedOperations;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BeordersApplication.class)
+				.properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+				.profiles(PROFILES.isBlank() ? new String[0] : PROFILES.split(","))
+				.run(args)) {
+
+			int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			List<User> users = seed(context.getBean(JdbcTemplate.class));
+
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				HttpClient httpClient = HttpClient.newBuilder()
+						.executor(executor)
+						.connectTimeout(Duration.ofSeconds(5))
+						.build();
+				LoadTest loadTest = new LoadTest(httpClient, URI.create("http://localhost:" + port), users, parseMix(MIX));
+				loadTest.run(executor);
+			}
+		}
+	}
+
+
+	private void run(ExecutorService executor) throws InterruptedException, IOException {
+		System.out.printf("%d virtual threads, warm up %s, measure %s, mix %s, profiles [%s]%n", CONCURRENCY, WARMUP, DURATION, MIX, PROFILES);
+		Map<String, Measurement> measurements = new TreeMap<>();
+		long elapsedNanos;
+		try {
+			for (int i = 0; i < CONCURRENCY; i++) {
+				executor.submit(this::callUntilStopped);
+			}
+
+			Thread.sleep(WARMUP.toMillis());
+			// what has been recorded so far is the warm up: drop it
+			endpoints.values().forEach(endpoint -> {
+				endpoint.recorder().getIntervalHistogram();
+				endpoint.errors().reset();
+			});
+
+			long start = System.nanoTime();
+			Thread.sleep(DURATION.toMillis());
+			endpoints.forEach((name, endpoint) -> measurements.put(name,
+					new Measurement(endpoint.recorder().getIntervalHistogram(), endpoint.errors().sum())));
+			elapsedNanos = System.nanoTime() - start;
+		} finally {
+			running = false;
+		}
+
+		report(measurements, elapsedNanos, System.out);
+		if (RESULTS_FILE != null) {
+			Path resultsFile = Path.of(RESULTS_FILE);
+			Files.createDirectories(resultsFile.toAbsolutePath().getParent());
+			try (PrintStream out = new PrintStream(Files.newOutputStream(resultsFile), true, StandardCharsets.UTF_8)) {
+				report(measurements, elapsedNanos, out);
+			}
+		}
+	}
+
+
+	private void callUntilStopped() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (running) {
+			User user = users.get(random.nextInt(users.size()));
+			Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+			try {
+				call(user, operation, random);
+			} catch (IOException | RuntimeException e) {
+				endpoint(user, operation).errors().increment();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+
+	private void call(User user, Operation operation, ThreadLocalRandom random) throws IOException, InterruptedException {
+		long id = user.seededIds()[random.nextInt(user.seededIds().length)];
+		HttpRequest.Builder request = HttpRequest.newBuilder()
+				.header("Authorization", user.authorization())
+				.timeout(Duration.ofSeconds(30));
+
+		switch (operation) {
+			case LIST -> request.uri(uri(user.basePath() + "?page=" + random.nextInt(10) + "&size=20")).GET();
+			case GET -> request.uri(uri(user.basePath() + "/" + id)).GET();
+			case CREATE -> request.uri(uri(user.basePath()))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(randomOrder(random)));
+			case UPDATE -> request.uri(uri(user.basePath() + "/" + id))
+					.header("Content-Type", "application/json")
+					.PUT(HttpRequest.BodyPublishers.ofString(randomOrder(random)));
+			case DELETE -> {
+				// only the orders created by the test are deleted, so that the seeded ones stay there
+				Long createdId = user.createdIds().poll();
+				if (createdId == null) {
+					return;
+				}
+				request.uri(uri(user.basePath() + "/" + createdId)).DELETE();
+			}
+		}
+
+		Endpoint endpoint = endpoint(user, operation);
+		long start = System.nanoTime();
+		HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+		endpoint.recorder().recordValue(System.nanoTime() - start);
+
+		if (response.statusCode() >= 300) {
+			endpoint.errors().increment();
+		} else if (operation == Operation.CREATE) {
+			createdId(response).ifPresent(user.createdIds()::add);
+		}
+	}
+
+
+	private Endpoint endpoint(User user, Operation operation) {
+		String name = switch (operation) {
+			case LIST -> "GET    " + user.basePath();
+			case GET -> "GET    " + user.basePath() + "/{id}";
+			case CREATE -> "POST   " + user.basePath();
+			case UPDATE -> "PUT    " + user.basePath() + "/{id}";
+			case DELETE -> "DELETE " + user.basePath() + "/{id}";
+		};
+		return endpoints.computeIfAbsent(name, key -> new Endpoint(new Recorder(3), new LongAdder()));
+	}
+
+
+	private static void report(Map<String, Measurement> measurements, long elapsedNanos, PrintStream out) {
+		double seconds = elapsedNanos / 1e9;
+		out.printf("%n%-30s %10s %10s %8s %10s %10s %10s %10s%n", "endpoint", "calls", "calls/s", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		long total = 0;
+		for (Map.Entry<String, Measurement> entry : measurements.entrySet()) {
+			Histogram histogram = entry.getValue().histogram();
+			total += histogram.getTotalCount();
+			out.printf("%-30s %10d %10.1f %8d %10.2f %10.2f %10.2f %10.2f%n",
+					entry.getKey(),
+					histogram.getTotalCount(),
+					histogram.getTotalCount() / seconds,
+					entry.getValue().errors(),
+					millis(histogram.getValueAtPercentile(50)),
+					millis(histogram.getValueAtPercentile(99)),
+					millis(histogram.getValueAtPercentile(99.9)),
+					millis(histogram.getMaxValue()));
+		}
+		out.printf("%-30s %10d %10.1f%n", "total", total, total / seconds);
+	}
+
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+
+	private static List<User> seed(JdbcTemplate jdbcTemplate) {
+		List<User> users = new ArrayList<>();
+		for (Map.Entry<String, String> credentials : new TreeMap<>(PASSWORDS).entrySet()) {
+			String name = credentials.getKey();
+			List<Object[]> rows = new ArrayList<>(ORDERS_PER_USER);
+			for (int i = 0; i < ORDERS_PER_USER; i++) {
+				rows.add(new Object[] { 1 + (i * 7919 % 100_000) / 100.0, name, PRODUCTS[i % PRODUCTS.length], 1 + i % 10 });
+			}
+			jdbcTemplate.batchUpdate(INSERT, rows);
+			long[] ids = jdbcTemplate.queryForList("SELECT ID FROM BE_ORDER WHERE OWNER = ?", Long.class, name).stream()
+					.mapToLong(Long::longValue)
+					.toArray();
+
+			String authorization = "Basic " + Base64.getEncoder()
+					.encodeToString((name + ":" + credentials.getValue()).getBytes(StandardCharsets.UTF_8));
+			String basePath = name.equals("Admin") ? "/v1/admin/orders" : "/v1/orders";
+			users.add(new User(name, authorization, basePath, ids, new ConcurrentLinkedQueue<>()));
+		}
+		return users;
+	}
+
+
+	private static Operation[] parseMix(String mix) {
+		Map<Operation, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] weight = entry.trim().split("=");
+			weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.valueOf(weight[1].trim()));
+		}
+		return weights.entrySet().stream()
+				.flatMap(weight -> Stream.generate(weight::getKey).limit(weight.getValue()))
+				.toArray(Operation[]::new);
+	}
+
+
+	private URI uri(String path) {
+		return baseUri.resolve(path);
+	}
+
+
+	private static String randomOrder(ThreadLocalRandom random) {
+		return String.format(Locale.ROOT, """
+				{"amount": %.2f, "product": "%s", "quantity": %d}
+				""", 1 + random.nextDouble(1000), PRODUCTS[random.nextInt(PRODUCTS.length)], 1 + random.nextInt(10));
+	}
+
+
+	// the id of a new order is the last segment of its Location header
+	private static Optional<Long> createdId(HttpResponse<?> response) {
+		return response.headers().firstValue("Location")
+				.map(location -> Long.valueOf(location.substring(location.lastIndexOf('/') + 1)));
+	}
+}
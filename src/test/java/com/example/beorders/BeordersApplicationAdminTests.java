@@ -2,19 +2,28 @@ package com.example.beorders;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 
 import com.example.beorders.orders.Order;
+import com.example.beorders.orders.controllers.OrderController;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 
@@ -77,6 +86,158 @@ class BeordersApplicationAdminTests {
 	}
 	
 	
+	@Test
+	void shouldExportAllOrdersAsNdjson() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders/export", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getContentType().toString()).startsWith("application/x-ndjson");
+		
+		String[] lines = response.getBody().split("\n");
+		assertThat(lines).hasSize(9);
+		
+		DocumentContext documentContext = JsonPath.parse(lines[1]);
+		Number id = documentContext.read("$.id");
+		Double amount = documentContext.read("$.amount");
+		String owner = documentContext.read("$.owner");
+		String product = documentContext.read("$.product");
+		Number quantity = documentContext.read("$.quantity");
+		
+		assertThat(id).isEqualTo(100);
+		assertThat(amount).isEqualTo(450.00);
+		assertThat(owner).isEqualTo("Alice");
+		assertThat(product).isEqualTo("Golden Ring");
+		assertThat(quantity).isEqualTo(10);
+	}
+	
+	
+	@Test
+	void shouldExportAllOrdersAsGzippedCsv() throws IOException {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		ResponseEntity<byte[]> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.exchange("/v1/admin/orders/export?format=csv", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+		assertThat(response.getHeaders().getVary()).contains(HttpHeaders.ACCEPT_ENCODING);
+		
+		String csv;
+		try (GZIPInputStream body = new GZIPInputStream(new ByteArrayInputStream(response.getBody()))) {
+			csv = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		String[] lines = csv.split("\r\n");
+		assertThat(lines).hasSize(10);
+		assertThat(lines[0]).isEqualTo("id,amount,owner,product,quantity");
+		assertThat(lines[1]).isEqualTo("50,1100.99,Alice,Food,10");
+		assertThat(lines[9]).isEqualTo("1000,1968.05,Admin,Computer,1");
+	}
+	
+	
+	@Test
+	void shouldNotGzipTheExportWhenGzipIsRefused() {
+		for (String acceptEncoding : List.of("gzip;q=0", "deflate, gzip; q=0.0", "*;q=0", "br")) {
+			HttpHeaders headers = new HttpHeaders();
+			headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+			ResponseEntity<String> response = restTemplate
+					.withBasicAuth("Admin", "admin")
+					.exchange("/v1/admin/orders/export?format=csv", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+			
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+			assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).as(acceptEncoding).isNull();
+			assertThat(response.getHeaders().getVary()).contains(HttpHeaders.ACCEPT_ENCODING);
+			assertThat(response.getBody()).startsWith("id,amount,owner,product,quantity");
+		}
+	}
+	
+	
+	@Test
+	void shouldNotExportOrdersInAnUnknownFormat() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders/export?format=xml", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+	
+	
+	@Test
+	void shouldNotExportOrdersToAnOwner() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/admin/orders/export", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldImportOrdersFromNdjsonAndReportTheRejectedLines() {
+		String upload = """
+				{"amount": 10.50, "product": "Lamp", "quantity": 1}
+				{"amount": 11.50, "quantity": 1}
+				
+				{"amount": 12.50, "owner": "Cathy", "product": "lamp", "quantity": 3}
+				""";
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.postForEntity("/v1/admin/orders/import", new HttpEntity<>(upload, headers), String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		Number imported = documentContext.read("$.imported");
+		Number rejected = documentContext.read("$.rejected");
+		Number rejectedLine = documentContext.read("$.rejections[0].line");
+		assertThat(imported).isEqualTo(2);
+		assertThat(rejected).isEqualTo(1);
+		assertThat(rejectedLine).isEqualTo(2);
+		
+		ResponseEntity<String> listResponse = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?productType=LAMP", String.class);
+		DocumentContext listContext = JsonPath.parse(listResponse.getBody());
+		JSONArray owners = listContext.read("$..owner");
+		assertThat(owners).containsExactly("Admin", "Cathy");
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldImportOrdersFromCsv() {
+		String upload = """
+				product,quantity,amount,owner
+				"Lamp, large",2,20.00,Alice
+				"The ""best"" lamp",1,30.00,
+				Lamp,many,40.00,Alice
+				""";
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("text/csv"));
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.postForEntity("/v1/admin/orders/import", new HttpEntity<>(upload, headers), String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		Number imported = documentContext.read("$.imported");
+		Number rejectedLine = documentContext.read("$.rejections[0].line");
+		assertThat(imported).isEqualTo(2);
+		assertThat(rejectedLine).isEqualTo(4);
+		
+		ResponseEntity<String> listResponse = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?productType=lamp, large", String.class);
+		DocumentContext listContext = JsonPath.parse(listResponse.getBody());
+		JSONArray owners = listContext.read("$..owner");
+		assertThat(owners).containsExactly("Alice");
+	}
+	
+	
 	@Test
 	void shouldNotReturnAnOrderWithAnUnknownId() {
 		ResponseEntity<String> response = restTemplate
@@ -92,7 +253,7 @@ class BeordersApplicationAdminTests {
 	@DirtiesContext
 	void shouldCreateANewOrderForAdminHimself() {
 		// owner parameter is null because the owner is taken from the principal
-		Order newOrder = new Order(null, 250.00, null, "Computer laptop", 2);
+		Order newOrder = new Order(null, 250.00, null, "Computer laptop", 2, null);
 		ResponseEntity<Void> createResponse = restTemplate
 				.withBasicAuth("Admin", "admin")
 				.postForEntity("/v1/admin/orders", newOrder, Void.class);
@@ -124,7 +285,7 @@ class BeordersApplicationAdminTests {
 	@DirtiesContext
 	void shouldCreateANewOrderOnBehalfOthersUsingReservedUri() {
 		// Admin creates an order on behalf of Alice
-		Order newOrd = new Order(null, 250.00, "Alice", "Bicicletta", 10);
+		Order newOrd = new Order(null, 250.00, "Alice", "Bicicletta", 10, null);
 		ResponseEntity<Void> createResponse = restTemplate
 				.withBasicAuth("Admin", "admin")
 				.postForEntity("/v1/admin/orders", newOrd, Void.class);
@@ -186,7 +347,7 @@ class BeordersApplicationAdminTests {
 	@DirtiesContext
 	void shouldCreateANewOrderOnBehalfOthersUsingPublicUri() {
 		// Admin creates an order on behalf of Alice
-		Order newOrd = new Order(null, 250.00, "Alice", "Bicicletta", 10);
+		Order newOrd = new Order(null, 250.00, "Alice", "Bicicletta", 10, null);
 		ResponseEntity<Void> createResponse = restTemplate
 				.withBasicAuth("Admin", "admin")
 				.postForEntity("/v1/orders", newOrd, Void.class);
@@ -358,7 +519,7 @@ class BeordersApplicationAdminTests {
 	@Test
 	@DirtiesContext
 	void shouldUpdateAnExistingOrderOfAdminUsingReservedUri() {
-		Order orderUpdate = new Order(null, 200.00, "Admin", "Computer quantistico", 5);
+		Order orderUpdate = new Order(null, 200.00, "Admin", "Computer quantistico", 5, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -388,7 +549,7 @@ class BeordersApplicationAdminTests {
 	@Test
 	@DirtiesContext
 	void shouldUpdateAnExistingOrderOfAdminUsingPublicUri() {
-		Order orderUpdate = new Order(null, 200.00, "Admin", "Computer quantistico", 5);
+		Order orderUpdate = new Order(null, 200.00, "Admin", "Computer quantistico", 5, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -418,7 +579,7 @@ class BeordersApplicationAdminTests {
 	@Test
 	@DirtiesContext
 	void shouldUpdateAnExistingOrderOnBehalfOfOthersUsingReservedUri() {
-		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5);
+		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -450,7 +611,7 @@ class BeordersApplicationAdminTests {
 	@Test
 	@DirtiesContext
 	void shouldUpdateAnExistingOrderOnBehalfOfOthersUsingPublicUri() {
-		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5);
+		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -595,7 +756,7 @@ class BeordersApplicationAdminTests {
 	
 	@Test
 	void shouldNotUpdateAnOrderThatDoesNotExistUsingReservedUri() {
-		Order unknownOrder = new Order(null, 19.99, null, null, null);
+		Order unknownOrder = new Order(null, 19.99, null, null, null, null);
 		HttpEntity<Order> request = new HttpEntity<>(unknownOrder);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -605,9 +766,55 @@ class BeordersApplicationAdminTests {
 	}
 	
 	
+	@Test
+	@DirtiesContext
+	void shouldPatchAnOrderOfAnyOwnerUsingReservedUri() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/merge-patch+json"));
+		ResponseEntity<Void> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.exchange("/v1/admin/orders/600", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 3}", headers), Void.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		
+		DocumentContext documentContext = JsonPath.parse(restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.getForEntity("/v1/orders/600", String.class)
+				.getBody());
+		Number quantity = documentContext.read("$.quantity");
+		String product = documentContext.read("$.product");
+		assertThat(quantity).isEqualTo(3);
+		assertThat(product).isEqualTo("Dogfood");
+		
+		ResponseEntity<Void> unknownOrder = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.exchange("/v1/admin/orders/99999", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 3}", headers), Void.class);
+		assertThat(unknownOrder.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+	
+	
+	@Test
+	void shouldNotPatchTheOwnerOfAnOrderUsingReservedUri() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/merge-patch+json"));
+		ResponseEntity<Void> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.exchange("/v1/admin/orders/600", HttpMethod.PATCH, new HttpEntity<>("{\"owner\": \"Boris\", \"quantity\": 3}", headers), Void.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		
+		DocumentContext documentContext = JsonPath.parse(restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.getForEntity("/v1/orders/600", String.class)
+				.getBody());
+		String owner = documentContext.read("$.owner");
+		Number quantity = documentContext.read("$.quantity");
+		assertThat(owner).isEqualTo("Cathy");
+		assertThat(quantity).isEqualTo(1);
+	}
+	
+	
 	@Test
 	void shouldNotUpdateAnOrderThatDoesNotExistUsingPublicUri() {
-		Order unknownOrder = new Order(null, 19.99, null, null, null);
+		Order unknownOrder = new Order(null, 19.99, null, null, null, null);
 		HttpEntity<Order> request = new HttpEntity<>(unknownOrder);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Admin", "admin")
@@ -770,4 +977,64 @@ class BeordersApplicationAdminTests {
 		assertThat(quantities).containsExactlyInAnyOrder(10, 10, 5, 1, 1, 1, 1, 1, 1);
 	}
 	
+
+	@Test
+	void shouldReturnToAdminTheRequestedOrdersOfAnyOwner() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?ids=600,1000,100,999", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		JSONArray ids = documentContext.read("$..id");
+		JSONArray owners = documentContext.read("$..owner");
+		assertThat(ids).containsExactly(600, 1000, 100);
+		assertThat(owners).containsExactly("Cathy", "Admin", "Alice");
+		assertThat(response.getHeaders().getFirst(OrderController.MISSING_IDS_HEADER)).isEqualTo("999");
+	}
+	
+
+	@Test
+	void shouldReturnToAdminTheOrdersOfTheGivenOwners() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?owner=Alice,Cathy&product=dogfood&withTotal=true", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		JSONArray ids = documentContext.read("$..id");
+		JSONArray owners = documentContext.read("$..owner");
+		assertThat(ids).containsExactly(300, 600);
+		assertThat(owners).containsExactly("Alice", "Cathy");
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+	}
+	
+
+	@Test
+	void shouldReturnToAdminTheOrdersOfEveryOwnerWhoseProductContainsTheSearchedTerm() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?productSearch=ogfoo&withTotal=true", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		JSONArray ids = documentContext.read("$..id");
+		assertThat(ids).containsExactly(300, 600);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+	}
+	
+
+	@Test
+	void shouldReturnToAdminOnlyTheRequestedFields() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/orders?fields=owner,quantity&owner=Cathy", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		assertThat(documentContext.read("$.length()", Integer.class)).isEqualTo(1);
+		assertThat(documentContext.read("$[0]", Map.class)).containsOnlyKeys("owner", "quantity");
+		assertThat(documentContext.read("$[0].owner", String.class)).isEqualTo("Cathy");
+	}
+	
 }
@@ -2,19 +2,39 @@ package com.example.beorders;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 
 import com.example.beorders.orders.Order;
+import com.example.beorders.orders.OrderCursor;
+import com.example.beorders.orders.controllers.OrderController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 
@@ -25,6 +45,9 @@ class BeordersApplicationTests {
 	
 	@Autowired
 	TestRestTemplate restTemplate;
+	
+	@Autowired
+	JdbcTemplate jdbcTemplate;
 
 	@Test
 	void contextLoads() {
@@ -69,7 +92,7 @@ class BeordersApplicationTests {
 	@DirtiesContext
 	void shouldCreateANewOrder() {
 		// owner parameter is null because the owner is taken from the principal 
-		Order newOrd = new Order(null, 250.00, null, "Computer quantistico", 5);
+		Order newOrd = new Order(null, 250.00, null, "Computer quantistico", 5, null);
 		ResponseEntity<Void> createResponse = restTemplate
 				.withBasicAuth("Alice", "alice")
 				.postForEntity("/v1/orders", newOrd, Void.class);
@@ -205,7 +228,7 @@ class BeordersApplicationTests {
 	@Test
 	@DirtiesContext
 	void shouldUpdateAnExistingOrder() {
-		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5);
+		Order orderUpdate = new Order(null, 200.00, "Alice", "Computer quantistico", 5, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Alice", "alice")
@@ -263,6 +286,20 @@ class BeordersApplicationTests {
 	}
 	
 	
+	@Test
+	void shouldNotSortOrdersByAnUnknownProperty() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?page=0&size=1&sort=color,desc", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		
+		ResponseEntity<String> filteredResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?product=ring&sort=color,desc", String.class);
+		assertThat(filteredResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+	
+	
 	@Test
 	void shouldReturnASortedPageOfOrdersWithNoParametersAndUseDefaultValues() {
 		ResponseEntity<String> response = restTemplate
@@ -290,6 +327,130 @@ class BeordersApplicationTests {
 	}
 	
 	
+	@Test
+	void shouldWalkAllOrdersUsingACursor() {
+		ResponseEntity<String> firstResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?after=&size=3", String.class);
+		assertThat(firstResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		JSONArray firstIds = JsonPath.parse(firstResponse.getBody()).read("$..id");
+		assertThat(firstIds).containsExactly(110, 100, 105);
+		
+		String cursor = firstResponse.getHeaders().getFirst(OrderCursor.NEXT_CURSOR_HEADER);
+		assertThat(cursor).isNotBlank();
+		
+		ResponseEntity<String> secondResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?after={cursor}&size=3", String.class, cursor);
+		assertThat(secondResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		JSONArray secondIds = JsonPath.parse(secondResponse.getBody()).read("$..id");
+		assertThat(secondIds).containsExactly(50, 200, 300);
+		
+		cursor = secondResponse.getHeaders().getFirst(OrderCursor.NEXT_CURSOR_HEADER);
+		ResponseEntity<String> lastResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?after={cursor}&size=3", String.class, cursor);
+		assertThat(lastResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		JSONArray lastIds = JsonPath.parse(lastResponse.getBody()).read("$..id");
+		assertThat(lastIds).containsExactly(400);
+		
+		// the last page is not full, so there is nothing left to read
+		assertThat(lastResponse.getHeaders().containsKey(OrderCursor.NEXT_CURSOR_HEADER)).isFalse();
+	}
+	
+	
+	@Test
+	void shouldRejectAMalformedCursor() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?after=not-a-cursor", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+	
+	
+	@Test
+	void shouldReturnTheTotalNumberOfOrdersOnlyWhenAskedFor() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?page=0&size=2&withTotal=true", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("7");
+		
+		ResponseEntity<String> productResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productType=dogfood&withTotal=true", String.class);
+		assertThat(productResponse.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("1");
+		
+		ResponseEntity<String> responseWithoutTotal = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?page=0&size=2", String.class);
+		assertThat(responseWithoutTotal.getHeaders().containsKey(OrderController.TOTAL_COUNT_HEADER)).isFalse();
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldKeepTheTotalNumberOfOrdersUpToDate() {
+		Order newOrder = new Order(null, 10.00, null, "Dogfood", 3, null);
+		restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/orders", newOrder, Void.class);
+		restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/400", HttpMethod.DELETE, null, Void.class);
+		
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productType=Dogfood&withTotal=true", String.class);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+		
+		ResponseEntity<String> allResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?withTotal=true", String.class);
+		assertThat(allResponse.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("7");
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldCountTheOrdersOfConcurrentWriters() throws Exception {
+		int writers = 8;
+		int ordersPerWriter = 10;
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < writers; i++) {
+				results.add(executor.submit(() -> {
+					for (int j = 0; j < ordersPerWriter; j++) {
+						ResponseEntity<Void> response = restTemplate
+								.withBasicAuth("Cathy", "cathy")
+								.postForEntity("/v1/orders", new Order(null, 5.00, null, "Pen", 1, null), Void.class);
+						assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		// the counter of (Cathy, PEN) is spread over several rows, which add up to every order
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.getForEntity("/v1/orders?productType=pen&withTotal=true", String.class);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo(String.valueOf(writers * ordersPerWriter));
+		assertThat(jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM BE_ORDER_COUNT WHERE OWNER = 'Cathy' AND PRODUCT_KEY = 'PEN'", Integer.class)).isGreaterThan(1);
+		
+		ResponseEntity<String> allResponse = restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.getForEntity("/v1/orders?withTotal=true", String.class);
+		assertThat(allResponse.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo(String.valueOf(writers * ordersPerWriter + 1));
+	}
+	
+	
 	@Test
 	void shouldNotReturnAnOrderWhenUsingBadUsername() {
 	    ResponseEntity<String> response = restTemplate
@@ -335,9 +496,89 @@ class BeordersApplicationTests {
 	}
 	
 	
+	@Test
+	@DirtiesContext
+	void shouldApplyABulkOfOperations() {
+		String operations = """
+				[
+					{"op": "create", "order": {"amount": 99.90, "product": "Lamp", "quantity": 2}},
+					{"op": "update", "id": 200, "order": {"amount": 1000.00, "product": "Motorbike", "quantity": 2}},
+					{"op": "delete", "id": 300},
+					{"op": "update", "id": 600, "order": {"amount": 1.00, "product": "Dogfood", "quantity": 1}},
+					{"op": "delete"}
+				]
+				""";
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/orders/_bulk", new HttpEntity<>(operations, headers), String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		JSONArray statuses = documentContext.read("$..status");
+		// order 600 belongs to Cathy and the last delete has no id
+		assertThat(statuses).containsExactly(201, 204, 204, 404, 400);
+		
+		Number newId = documentContext.read("$[0].id");
+		ResponseEntity<String> createdResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/" + newId, String.class);
+		assertThat(createdResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		String owner = JsonPath.parse(createdResponse.getBody()).read("$.owner");
+		assertThat(owner).isEqualTo("Alice");
+		
+		ResponseEntity<String> updatedResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/200", String.class);
+		Double amount = JsonPath.parse(updatedResponse.getBody()).read("$.amount");
+		assertThat(amount).isEqualTo(1000.00);
+		
+		ResponseEntity<String> deletedResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/300", String.class);
+		assertThat(deletedResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+		
+		ResponseEntity<String> cathysResponse = restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.getForEntity("/v1/orders/600", String.class);
+		Double cathysAmount = JsonPath.parse(cathysResponse.getBody()).read("$.amount");
+		assertThat(cathysAmount).isEqualTo(1600.99);
+	}
+	
+	
+	@Test
+	void shouldBreakDownTheTimeOfARequestWhenAskedFor() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("X-Server-Timing", "true");
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders?productType=dogfood", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		String serverTiming = response.getHeaders().getFirst("Server-Timing");
+		assertThat(serverTiming).contains("auth;dur=", "db;dur=", "serialize;dur=", "total;dur=");
+		
+		// the body is still there, in full
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		int orderCount = documentContext.read("$.length()");
+		assertThat(orderCount).isEqualTo(1);
+	}
+	
+	
+	@Test
+	void shouldNotBreakDownTheTimeOfARequestByDefault() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders", String.class);
+		
+		assertThat(response.getHeaders().containsKey("Server-Timing")).isFalse();
+	}
+	
+	
 	@Test
 	void shouldNotUpdateAnOrderThatDoesNotExist() {
-		Order unknownOrder = new Order(null, 19.99, null, null, null);
+		Order unknownOrder = new Order(null, 19.99, null, null, null, null);
 		HttpEntity<Order> request = new HttpEntity<>(unknownOrder);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Alice", "alice")
@@ -349,7 +590,7 @@ class BeordersApplicationTests {
 	
 	@Test
 	void shouldNotUpdateAnOrderThatIsOwnedBySomeoneElse() {
-		Order cathysOrder = new Order(null, 333.33, null, null, null);
+		Order cathysOrder = new Order(null, 333.33, null, null, null, null);
 		HttpEntity<Order> request = new HttpEntity<>(cathysOrder);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Alice", "alice")
@@ -404,6 +645,430 @@ class BeordersApplicationTests {
 	}
 	
 	
+	@Test
+	void shouldAccessOrdersWithAnAccessToken() {
+		ResponseEntity<String> tokenResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/auth/token", null, String.class);
+		assertThat(tokenResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		String token = JsonPath.parse(tokenResponse.getBody()).read("$.accessToken");
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(token);
+		ResponseEntity<String> response = restTemplate
+				.exchange("/v1/orders/100", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		Number id = JsonPath.parse(response.getBody()).read("$.id");
+		assertThat(id).isEqualTo(100);
+		
+		// the token carries the role of Alice, which is not enough for the reserved URIs
+		ResponseEntity<String> adminResponse = restTemplate
+				.exchange("/v1/admin/orders/100", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(adminResponse.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+	}
+	
+	
+	@Test
+	void shouldRejectATamperedAccessToken() {
+		ResponseEntity<String> tokenResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/auth/token", null, String.class);
+		String token = JsonPath.parse(tokenResponse.getBody()).read("$.accessToken");
+		
+		// claim to be Cathy, keeping Alice's signature
+		String forgedPayload = Base64.getUrlEncoder().withoutPadding()
+				.encodeToString("9999999999:ORDER_OWNER:Cathy".getBytes(StandardCharsets.UTF_8));
+		String forgedToken = forgedPayload + token.substring(token.indexOf('.'));
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(forgedToken);
+		ResponseEntity<String> response = restTemplate
+				.exchange("/v1/orders/600", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+	}
+	
+	
+	@Test
+	void shouldAnswerNotModifiedWhenTheOrderHasNotChanged() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/100", String.class);
+		String eTag = response.getHeaders().getETag();
+		assertThat(eTag).isNotBlank();
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(eTag);
+		ResponseEntity<String> conditionalResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/100", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(conditionalResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(conditionalResponse.getBody()).isNull();
+		
+		// the same for a page of orders
+		ResponseEntity<String> listResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productType=ring", String.class);
+		headers.setIfNoneMatch(listResponse.getHeaders().getETag());
+		ResponseEntity<String> conditionalListResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders?productType=ring", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(conditionalListResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+	}
+	
+	
+	@Test
+	void shouldReturnTheRequestedOrdersInTheRequestedOrder() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?ids=300,999,100,600,300,50", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		// 5 distinct ids, padded to 8 with the last one: each order is still returned once
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		JSONArray ids = documentContext.read("$..id");
+		assertThat(ids).containsExactly(300, 100, 50);
+		// 600 exists, but it is an order of Cathy
+		assertThat(response.getHeaders().getFirst(OrderController.MISSING_IDS_HEADER)).isEqualTo("999,600");
+	}
+	
+	
+	@Test
+	void shouldNotReturnMoreOrdersThanAllowedInOneRequest() {
+		String ids = LongStream.rangeClosed(1, 101).mapToObj(Long::toString).collect(Collectors.joining(","));
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?ids=" + ids, String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+	
+	
+	@Test
+	void shouldReturnOnlyTheOrdersThatMatchTheFilters() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?product=ring,DOGFOOD&minAmount=250&maxAmount=1400&withTotal=true", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		JSONArray ids = JsonPath.parse(response.getBody()).read("$..id");
+		// 600 is a Dogfood too, but it is an order of Cathy
+		assertThat(ids).containsExactly(110, 300);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+		
+		ResponseEntity<String> quantityResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?minQuantity=5&maxAmount=1000", String.class);
+		JSONArray quantityIds = JsonPath.parse(quantityResponse.getBody()).read("$..id");
+		assertThat(quantityIds).containsExactly(100, 105);
+	}
+	
+	
+	@Test
+	void shouldReturnTheOrdersWhoseProductStartsWithOrContainsTheSearchedTerm() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productSearch=ring&withTotal=true", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		JSONArray ids = JsonPath.parse(response.getBody()).read("$..id");
+		assertThat(ids).containsExactly(110, 100, 105);
+		assertThat(response.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("3");
+		
+		ResponseEntity<String> prefixResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productSearch=RI&productMatch=prefix", String.class);
+		JSONArray prefixIds = JsonPath.parse(prefixResponse.getBody()).read("$..id");
+		assertThat(prefixIds).containsExactly(110, 105);
+		
+		ResponseEntity<String> invalidResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productSearch=ring&productMatch=suffix", String.class);
+		assertThat(invalidResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldSearchTheProductsAsTheyAreCreatedUpdatedAndDeleted() {
+		Order newOrder = new Order(null, 75.00, null, "Earring", 2, null);
+		URI location = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/orders", newOrder, Void.class)
+				.getHeaders().getLocation();
+		Number newId = JsonPath.parse(restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForObject(location, String.class)).read("$.id");
+		restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.DELETE, null, Void.class);
+		restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/105", HttpMethod.PUT,
+						new HttpEntity<>(new Order(null, 500.50, null, "Diamonds", 5, null)), Void.class);
+		
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?productSearch=ring", String.class);
+		JSONArray ids = JsonPath.parse(response.getBody()).read("$..id");
+		assertThat(ids).containsExactly(newId.intValue(), 100);
+	}
+	
+	
+	@Test
+	void shouldReturnOnlyTheRequestedFields() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?fields=amount,id&productType=ring", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		assertThat(documentContext.read("$[0]", Map.class)).containsOnlyKeys("id", "amount");
+		assertThat(documentContext.read("$[0].id", Integer.class)).isEqualTo(110);
+		assertThat(documentContext.read("$[0].amount", Double.class)).isEqualTo(250.00);
+		
+		ResponseEntity<String> orderResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/100?fields=product", String.class);
+		assertThat(orderResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(orderResponse.getHeaders().getETag()).isNotBlank();
+		assertThat(JsonPath.parse(orderResponse.getBody()).read("$", Map.class)).containsOnlyKeys("product");
+		
+		ResponseEntity<String> invalidResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?fields=id,color", String.class);
+		assertThat(invalidResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		
+		// an order of Cathy stays hidden, with or without fields
+		ResponseEntity<String> hiddenResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/600?fields=id", String.class);
+		assertThat(hiddenResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldCreateAndReturnOrdersInTheBinaryFormats() throws IOException {
+		ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_CBOR);
+		headers.setAccept(List.of(MediaType.APPLICATION_CBOR));
+		byte[] newOrder = cbor.writeValueAsBytes(new Order(null, 75.00, null, "Earring", 2, null));
+		ResponseEntity<Void> createResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders", HttpMethod.POST, new HttpEntity<>(newOrder, headers), Void.class);
+		assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		
+		ResponseEntity<byte[]> getResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange(createResponse.getHeaders().getLocation(), HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(getResponse.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_CBOR);
+		Order order = cbor.readValue(getResponse.getBody(), Order.class);
+		assertThat(order.owner()).isEqualTo("Alice");
+		assertThat(order.product()).isEqualTo("Earring");
+		
+		// a list, in Smile
+		headers.setAccept(List.of(MediaType.parseMediaType("application/x-jackson-smile")));
+		ResponseEntity<byte[]> listResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders?productType=earring", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		assertThat(listResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		Order[] orders = new ObjectMapper(new SmileFactory()).readValue(listResponse.getBody(), Order[].class);
+		assertThat(orders).extracting(Order::product).containsExactly("Earring");
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldNotRevalidateAPageWhoseTotalHasChanged() {
+		ResponseEntity<String> listResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?page=0&size=2&withTotal=true", String.class);
+		String eTag = listResponse.getHeaders().getETag();
+		assertThat(listResponse.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("7");
+		assertThat(eTag).isNotEqualTo(restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders?page=0&size=2", String.class)
+				.getHeaders().getETag());
+		
+		// a new order beyond the first page leaves its orders as they were, but not its total
+		Order newOrder = new Order(null, 5000.00, null, "Boat", 1, null);
+		ResponseEntity<Void> createResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.postForEntity("/v1/orders", newOrder, Void.class);
+		assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(eTag);
+		ResponseEntity<String> conditionalResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders?page=0&size=2&withTotal=true", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		assertThat(conditionalResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(conditionalResponse.getHeaders().getFirst(OrderController.TOTAL_COUNT_HEADER)).isEqualTo("8");
+		assertThat(conditionalResponse.getHeaders().getETag()).isNotEqualTo(eTag);
+	}
+	
+	
+	@Test
+	void shouldNotRevalidateAnOrderInAnotherFormatThanItsETag() {
+		ResponseEntity<String> jsonResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/100", String.class);
+		String jsonETag = jsonResponse.getHeaders().getETag();
+		assertThat(jsonResponse.getHeaders().getVary()).contains(HttpHeaders.ACCEPT);
+		
+		// the JSON tag does not stand for the CBOR body: the client gets it, with a tag of its own
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(List.of(MediaType.APPLICATION_CBOR));
+		headers.setIfNoneMatch(jsonETag);
+		ResponseEntity<byte[]> cborResponse = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/100", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		assertThat(cborResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(cborResponse.getHeaders().getVary()).contains(HttpHeaders.ACCEPT);
+		String cborETag = cborResponse.getHeaders().getETag();
+		assertThat(cborETag).isNotEqualTo(jsonETag).endsWith("+cbor\"");
+		
+		headers.setIfNoneMatch(cborETag);
+		ResponseEntity<byte[]> notModified = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/100", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		assertThat(notModified.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		
+		// and the same goes for the lists
+		String jsonListETag = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders", String.class)
+				.getHeaders().getETag();
+		headers.setIfNoneMatch(jsonListETag);
+		ResponseEntity<byte[]> cborList = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		assertThat(cborList.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(cborList.getHeaders().getETag()).isNotEqualTo(jsonListETag);
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldNotUpdateAnOrderThatChangedSinceItWasRead() {
+		String eTag = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/110", String.class)
+				.getHeaders().getETag();
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfMatch(eTag);
+		Order orderUpdate = new Order(null, 260.00, "Alice", "Ring", 1, null);
+		ResponseEntity<Void> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.PUT, new HttpEntity<>(orderUpdate, headers), Void.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+		
+		// a second client still holding the old ETag can neither update nor delete the order
+		ResponseEntity<Void> staleUpdate = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.PUT, new HttpEntity<>(orderUpdate, headers), Void.class);
+		assertThat(staleUpdate.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+		ResponseEntity<Void> staleDelete = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.DELETE, new HttpEntity<>(headers), Void.class);
+		assertThat(staleDelete.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+		
+		// nor can anyone else find out that the order exists
+		ResponseEntity<Void> othersUpdate = restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.exchange("/v1/orders/110", HttpMethod.PUT, new HttpEntity<>(orderUpdate, headers), Void.class);
+		assertThat(othersUpdate.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldPatchOnlyTheGivenColumnsOfAnOrder() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/merge-patch+json"));
+		ResponseEntity<Void> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/105", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 7}", headers), Void.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		
+		DocumentContext documentContext = JsonPath.parse(restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/105", String.class)
+				.getBody());
+		Number quantity = documentContext.read("$.quantity");
+		Double amount = documentContext.read("$.amount");
+		String product = documentContext.read("$.product");
+		assertThat(quantity).isEqualTo(7);
+		assertThat(amount).isEqualTo(500.50);
+		assertThat(product).isEqualTo("Ring with diamonds");
+	}
+	
+	
+	@Test
+	@DirtiesContext
+	void shouldNotPatchAnOrderThatChangedSinceItWasRead() {
+		String eTag = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/110", String.class)
+				.getHeaders().getETag();
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/merge-patch+json"));
+		headers.setIfMatch(eTag);
+		ResponseEntity<Void> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 2}", headers), Void.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		String newETag = response.getHeaders().getETag();
+		assertThat(newETag).isNotNull().isNotEqualTo(eTag);
+		
+		// the old ETag no longer matches
+		ResponseEntity<Void> stalePatch = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 3}", headers), Void.class);
+		assertThat(stalePatch.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+		
+		// an empty patch changes nothing, and so keeps the ETag
+		headers.setIfMatch(newETag);
+		ResponseEntity<Void> emptyPatch = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/110", HttpMethod.PATCH, new HttpEntity<>("{}", headers), Void.class);
+		assertThat(emptyPatch.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		assertThat(emptyPatch.getHeaders().getETag()).isEqualTo(newETag);
+		
+		ResponseEntity<String> current = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/orders/110", String.class);
+		assertThat(current.getHeaders().getETag()).isEqualTo(newETag);
+		Number quantity = JsonPath.parse(current.getBody()).read("$.quantity");
+		assertThat(quantity).isEqualTo(2);
+	}
+	
+	
+	@Test
+	void shouldNotPatchAnOrderWithAnInvalidPatch() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/merge-patch+json"));
+		ResponseEntity<Void> removal = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/105", HttpMethod.PATCH, new HttpEntity<>("{\"product\": null}", headers), Void.class);
+		assertThat(removal.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		
+		ResponseEntity<Void> unknownMember = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.exchange("/v1/orders/105", HttpMethod.PATCH, new HttpEntity<>("{\"color\": \"red\"}", headers), Void.class);
+		assertThat(unknownMember.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		
+		ResponseEntity<Void> othersOrder = restTemplate
+				.withBasicAuth("Cathy", "cathy")
+				.exchange("/v1/orders/105", HttpMethod.PATCH, new HttpEntity<>("{\"quantity\": 1}", headers), Void.class);
+		assertThat(othersOrder.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+	
+	
 	@Test
 	void shouldNotAccessAdminReservedUriWithGet() {
 		ResponseEntity<String> response = restTemplate
@@ -424,7 +1089,7 @@ class BeordersApplicationTests {
 	
 	@Test
 	void shouldNotAccessAdminReservedUriWithPost() {
-		Order newOrder = new Order(null, 250.00, "Alice", "Computer laptop", 2);
+		Order newOrder = new Order(null, 250.00, "Alice", "Computer laptop", 2, null);
 		ResponseEntity<String> response = restTemplate
 				.withBasicAuth("Alice", "alice")
 				.postForEntity("/v1/admin/orders", newOrder, String.class);
@@ -434,7 +1099,7 @@ class BeordersApplicationTests {
 	
 	@Test
 	void shouldNotAccessAdminReservedUriWithPut() {
-		Order orderUpdate = new Order(null, 250.00, "Alice", "Computer laptop", 2);
+		Order orderUpdate = new Order(null, 250.00, "Alice", "Computer laptop", 2, null);
 		HttpEntity<Order> request = new HttpEntity<>(orderUpdate);
 		ResponseEntity<Void> response = restTemplate
 				.withBasicAuth("Alice", "alice")
@@ -0,0 +1,80 @@
+package com.example.beorders;
+
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import org.assertj.core.util.Arrays;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+import org.springframework.boot.test.json.BasicJsonTester;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.example.beorders.orders.Order;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+
+/**
+ * The shapes checked by OrderJsonTest, in CBOR and in Smile: every order is encoded the
+ * way the message converters of OrderFormatsConfig encode it, decoded back, and compared
+ * (as JSON) with the same expected documents.
+ */
+@JsonTest
+class OrderBinaryFormatsTest {
+	@Autowired
+	private ObjectProvider<Jackson2ObjectMapperBuilder> builders;
+
+	@Autowired
+	private ObjectMapper jsonMapper;
+
+	private final BasicJsonTester json = new BasicJsonTester(getClass());
+
+
+	static Stream<JsonFactory> binaryFormats() {
+		return Stream.of(new CBORFactory(), new SmileFactory());
+	}
+
+
+	@ParameterizedTest
+	@MethodSource("binaryFormats")
+	void orderRoundTripTest(JsonFactory format) throws IOException {
+		ObjectMapper mapper = builders.getObject().factory(format).build();
+		Order anOrder = new Order(100L, 123.00, "Alice", "Food", 1, null);
+
+		byte[] encoded = mapper.writeValueAsBytes(anOrder);
+
+		assertThat(json.from(jsonMapper.writeValueAsString(mapper.readTree(encoded))))
+				.isStrictlyEqualToJson("orders/order_expected_single.json");
+		assertThat(mapper.readValue(encoded, Order.class)).isEqualTo(anOrder);
+	}
+
+
+	@ParameterizedTest
+	@MethodSource("binaryFormats")
+	void ordersListRoundTripTest(JsonFactory format) throws IOException {
+		ObjectMapper mapper = builders.getObject().factory(format).build();
+		Order[] beOrders = Arrays.array(
+				new Order( 99L,  123.99, "Alice", "Ring",      1, null),
+				new Order(100L, 1100.99, "Alice", "Food",      1, null),
+				new Order(200L, 1200.99, "Alice", "Motorbike", 1, null),
+				new Order(300L, 1300.99, "Alice", "Dogfood",   1, null),
+				new Order(400L, 1400.99, "Alice", "Fork",      1, null)
+		);
+
+		byte[] encoded = mapper.writeValueAsBytes(beOrders);
+
+		assertThat(json.from(jsonMapper.writeValueAsString(mapper.readTree(encoded))))
+				.isStrictlyEqualToJson("orders/order_expected_list.json");
+		assertThat(mapper.readValue(encoded, Order[].class)).isEqualTo(beOrders);
+		// the point of the binary formats: fewer bytes on the wire than the same orders in JSON
+		assertThat(encoded.length).isLessThan(jsonMapper.writeValueAsBytes(beOrders).length);
+	}
+}
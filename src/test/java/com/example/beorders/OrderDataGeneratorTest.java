@@ -0,0 +1,55 @@
+package com.example.beorders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(properties = {
+		// no sample data: only the generated orders
+		"spring.sql.init.data-locations=optional:classpath:no-data.sql",
+		"beorders.generator.orders=5000",
+		"beorders.generator.owners=100",
+		"beorders.generator.products=50",
+		"beorders.generator.batch-size=1000"
+})
+@ActiveProfiles("generate-data")
+class OrderDataGeneratorTest {
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+
+	@Test
+	void shouldGenerateTheRequestedNumberOfOrders() {
+		Long orders = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM BE_ORDER", Long.class);
+		assertThat(orders).isEqualTo(5000);
+	}
+
+
+	@Test
+	void shouldGiveMostOfTheOrdersToTheFirstOwners() {
+		String busiestOwner = jdbcTemplate.queryForObject(
+				"SELECT OWNER FROM BE_ORDER GROUP BY OWNER ORDER BY COUNT(*) DESC LIMIT 1", String.class);
+		Long alicesOrders = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM BE_ORDER WHERE OWNER = 'Alice'", Long.class);
+		Long owners = jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT OWNER) FROM BE_ORDER", Long.class);
+		
+		assertThat(busiestOwner).isEqualTo("Alice");
+		// with a skew of 1.1 the first of 100 owners gets about a fifth of the orders, ten times their share
+		assertThat(alicesOrders).isGreaterThan(5000 / 10);
+		assertThat(owners).isGreaterThan(50);
+	}
+
+
+	@Test
+	void shouldKeepTheAmountsWithinBounds() {
+		Double minimum = jdbcTemplate.queryForObject("SELECT MIN(AMOUNT) FROM BE_ORDER", Double.class);
+		Double maximum = jdbcTemplate.queryForObject("SELECT MAX(AMOUNT) FROM BE_ORDER", Double.class);
+		
+		assertThat(minimum).isGreaterThanOrEqualTo(0.01);
+		assertThat(maximum).isLessThanOrEqualTo(20000);
+	}
+}
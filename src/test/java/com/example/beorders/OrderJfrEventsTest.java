@@ -0,0 +1,65 @@
+package com.example.beorders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class OrderJfrEventsTest {
+
+	@Autowired
+	TestRestTemplate restTemplate;
+
+
+	@Test
+	void shouldRecordTheOperationsAndTheQueriesOfARequest(@TempDir Path directory) throws Exception {
+		Path file = directory.resolve("recording.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("beorders.OrderOperation");
+			recording.enable("beorders.OrderQuery");
+			recording.start();
+			restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders/100", String.class);
+			restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders?productType=dogfood", String.class);
+			recording.stop();
+			recording.dump(file);
+		}
+		assertThat(Files.exists(file)).isTrue();
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+		assertThat(events)
+				.filteredOn(event -> event.getEventType().getName().equals("beorders.OrderOperation"))
+				.anySatisfy(event -> {
+					assertThat(event.getString("handler")).isEqualTo("OrderController.findById");
+					assertThat(event.getLong("orderId")).isEqualTo(100);
+					assertThat(event.getString("caller")).isEqualTo("Alice");
+					assertThat(event.getInt("rows")).isEqualTo(1);
+					assertThat(event.getInt("status")).isEqualTo(200);
+				})
+				.anySatisfy(event -> {
+					assertThat(event.getString("handler")).isEqualTo("OrderController.findAll");
+					assertThat(event.getString("productType")).isEqualTo("dogfood");
+					assertThat(event.getInt("rows")).isPositive();
+				});
+		assertThat(events)
+				.filteredOn(event -> event.getEventType().getName().equals("beorders.OrderQuery"))
+				.anySatisfy(event -> {
+					assertThat(event.getString("method")).isEqualTo("OrderRepository.findByOwnerAndProductIgnoreCase");
+					assertThat(event.getString("owner")).isEqualTo("Alice");
+					assertThat(event.getString("productType")).isEqualTo("dogfood");
+					assertThat(event.getLong("rows")).isPositive();
+					assertThat(event.getBoolean("failed")).isFalse();
+				});
+	}
+}
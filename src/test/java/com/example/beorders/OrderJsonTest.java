@@ -30,18 +30,18 @@ public class OrderJsonTest {
 	@BeforeEach
 	void setUp() {
 		beOrders = Arrays.array(
-				new Order( 99L,  123.99, "Alice", "Ring",      1),
-				new Order(100L, 1100.99, "Alice", "Food",      1),
-				new Order(200L, 1200.99, "Alice", "Motorbike", 1),
-				new Order(300L, 1300.99, "Alice", "Dogfood",   1),
-				new Order(400L, 1400.99, "Alice", "Fork",      1)
+				new Order( 99L,  123.99, "Alice", "Ring",      1, null),
+				new Order(100L, 1100.99, "Alice", "Food",      1, null),
+				new Order(200L, 1200.99, "Alice", "Motorbike", 1, null),
+				new Order(300L, 1300.99, "Alice", "Dogfood",   1, null),
+				new Order(400L, 1400.99, "Alice", "Fork",      1, null)
 		);
 	}
 
 	
 	@Test
 	void OrderSerializationTest() throws IOException {
-		Order anOrder = new Order(100L, 123.00, "Alice", "Food", 1);
+		Order anOrder = new Order(100L, 123.00, "Alice", "Food", 1, null);
 		JsonContent<Order> jsonOrder = json.write(anOrder);
 		
 		// test that 'write' operation is correct
@@ -77,7 +77,7 @@ public class OrderJsonTest {
 		""";
 		
 		// test that 'parse' operation is correct
-		assertThat(json.parse(expected)).isEqualTo(new Order(100L, 123.00, "Alice", "Food", 1));
+		assertThat(json.parse(expected)).isEqualTo(new Order(100L, 123.00, "Alice", "Food", 1, null));
 
 		// test that 'Order' attributes are read correctly
 		assertThat(json.parseObject(expected).id()).isEqualTo(100);
@@ -0,0 +1,56 @@
+package com.example.beorders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureObservability
+class OrderMetricsTest {
+	
+	@Autowired
+	TestRestTemplate restTemplate;
+
+
+	@Test
+	void shouldPublishTheMetricsOfTheControllersTheRepositoryAndTheCaches() {
+		restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders?productType=dogfood", String.class);
+		restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders/100", String.class);
+		
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/actuator/prometheus", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		
+		String metrics = response.getBody();
+		assertThat(metrics).containsPattern(
+				"beorders_requests_seconds_bucket\\{.*handler=\"OrderController.findAll\".*productType=\"present\".*role=\"ORDER_OWNER\"");
+		assertThat(metrics).containsPattern(
+				"spring_data_repository_invocations_seconds_bucket\\{.*method=\"findByOwnerAndProductIgnoreCase\"");
+		assertThat(metrics).containsPattern("cache_gets_total\\{cache=\"order-responses\",result=\"miss\"");
+		assertThat(metrics).containsPattern("cache_gets_total\\{cache=\"verified-credentials\",result=\"hit\"");
+		assertThat(metrics).contains("hikaricp_connections_active");
+	}
+
+
+	@Test
+	void shouldNotPublishTheMetricsToOwners() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/actuator/prometheus", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+	}
+
+
+	@Test
+	void shouldAnswerTheHealthCheckToEveryone() {
+		ResponseEntity<String> response = restTemplate.getForEntity("/actuator/health", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+}
@@ -0,0 +1,69 @@
+package com.example.beorders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+
+// the log is off by default; here every statement counts as slow
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = { "beorders.slow-queries.enabled=true", "beorders.slow-queries.threshold=0ms" })
+class SlowQueryLogTest {
+
+	@Autowired
+	TestRestTemplate restTemplate;
+
+
+	@Test
+	void shouldListTheSlowQueriesWithTheirParametersAndPlan() {
+		restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders?productType=dogfood", String.class);
+
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/slow-queries", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		DocumentContext documentContext = JsonPath.parse(response.getBody());
+		String filter = "$[?(@.sql =~ /.*PRODUCT_KEY.*/ && @.sql =~ /.*OWNER.*/)]";
+		assertThat(documentContext.read(filter + ".parameters[*]", List.class)).contains("Alice", "dogfood");
+		assertThat(documentContext.read(filter + ".rows", List.class)).containsExactly(1);
+		assertThat(documentContext.read(filter + ".plan", List.class))
+				.singleElement().asString().contains("BE_ORDER");
+	}
+
+
+	@Test
+	void shouldResetTheSlowQueries() {
+		restTemplate.withBasicAuth("Alice", "alice").getForEntity("/v1/orders", String.class);
+
+		ResponseEntity<Void> reset = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.exchange("/v1/admin/slow-queries", HttpMethod.DELETE, null, Void.class);
+		assertThat(reset.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Admin", "admin")
+				.getForEntity("/v1/admin/slow-queries", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(JsonPath.parse(response.getBody()).read("$", List.class)).isEmpty();
+	}
+
+
+	@Test
+	void shouldNotListTheSlowQueriesToOwners() {
+		ResponseEntity<String> response = restTemplate
+				.withBasicAuth("Alice", "alice")
+				.getForEntity("/v1/admin/slow-queries", String.class);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+	}
+}
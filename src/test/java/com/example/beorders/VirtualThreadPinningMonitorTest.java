@@ -0,0 +1,44 @@
+package com.example.beorders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.example.beorders.diagnostics.VirtualThreadPinningMonitor;
+
+@SpringBootTest
+@ActiveProfiles("virtual-threads")
+class VirtualThreadPinningMonitorTest {
+	private final Object lock = new Object();
+	
+	@Autowired
+	VirtualThreadPinningMonitor pinningMonitor;
+
+
+	@Test
+	void shouldReportAVirtualThreadBlockedInASynchronizedBlock() throws InterruptedException {
+		// from Java 24 on, blocking inside synchronized no longer pins the virtual thread
+		assumeTrue(Runtime.version().feature() < 24);
+		
+		Thread.ofVirtual().start(() -> {
+			synchronized (lock) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}).join();
+		
+		// the JFR events are streamed asynchronously, about once per second
+		for (int i = 0; i < 100 && pinningMonitor.pinnedCount() == 0; i++) {
+			Thread.sleep(100);
+		}
+		assertThat(pinningMonitor.pinnedCount()).isPositive();
+		assertThat(pinningMonitor.placeCounts()).isNotEmpty();
+	}
+}
@@ -0,0 +1,43 @@
+package com.example.beorders.diagnostics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.beorders.diagnostics.SlowQueryLog.SlowQuery;
+
+class SlowQueryLogWindowTest {
+	// not explained, so no connection is needed
+	private static final String FIRST = "CALL 1";
+	private static final String SECOND = "CALL 2";
+	private static final String THIRD = "CALL 3";
+
+
+	@Test
+	void shouldKeepTheSlowestStatementsOnly() {
+		SlowQueryLog log = new SlowQueryLog(Duration.ZERO, 2, false, Duration.ofHours(1));
+		log.record(FIRST, List.of(), 1, 3_000_000, null);
+		log.record(SECOND, List.of(), 1, 1_000_000, null);
+		log.record(THIRD, List.of(), 1, 2_000_000, null);
+		log.record(FIRST, List.of(), 1, 1_000_000, null);
+
+		assertThat(log.top()).extracting(SlowQuery::sql).containsExactly(FIRST, THIRD);
+		assertThat(log.top().getFirst().count()).isEqualTo(2);
+		assertThat(log.top().getFirst().maxMillis()).isEqualTo(3.0);
+	}
+
+
+	@Test
+	void shouldDropTheStatementsThatWereNotSlowWithinTheWindow() throws InterruptedException {
+		SlowQueryLog log = new SlowQueryLog(Duration.ZERO, 2, false, Duration.ofMillis(200));
+		log.record(FIRST, List.of(), 1, 3_000_000, null);
+		Thread.sleep(300);
+		log.record(SECOND, List.of(), 1, 1_000_000, null);
+
+		// the slowest one is gone: the faster one, slow within the window, takes its place
+		assertThat(log.top()).extracting(SlowQuery::sql).containsExactly(SECOND);
+	}
+}
@@ -0,0 +1,140 @@
+package com.example.beorders.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.example.beorders.orders.OrderQueriesImpl.FilterShape;
+import com.example.beorders.orders.OrderQueriesImpl.FilterStatementType;
+
+/**
+ * Runs H2's EXPLAIN on the statements behind each OrderRepository access path
+ * and fails when one of them is no longer served by the expected index.
+ * <p>
+ * The statements are the ones the repository issues: the list and filter queries
+ * are built by OrderQueriesImpl, the keyset queries are read from the {@code @Query}
+ * annotations, and only the derived queries are written the way Spring Data JDBC
+ * renders them.
+ */
+@JdbcTest
+class OrderQueryPlanTest {
+	private static final String TABLE_SCAN = "tableScan";
+
+	// the default listing order of the controllers
+	private static final PageRequest FIRST_PAGE = PageRequest.of(0, 20, Sort.by(Sort.Direction.ASC, "amount"));
+
+	@Autowired
+	NamedParameterJdbcTemplate jdbcTemplate;
+
+
+	@Test
+	void findByIdAndOwnerShouldUseThePrimaryKey() {
+		String plan = explain("SELECT " + OrderQueriesImpl.COLUMNS + " FROM BE_ORDER WHERE ID = :id AND OWNER = :owner",
+				new MapSqlParameterSource("id", 100L).addValue("owner", "Alice"));
+		assertThat(plan).contains("PRIMARY_KEY").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void existsByIdAndOwnerShouldUseThePrimaryKey() {
+		String plan = explain("SELECT ID FROM BE_ORDER WHERE ID = :id AND OWNER = :owner FETCH FIRST 1 ROWS ONLY",
+				new MapSqlParameterSource("id", 100L).addValue("owner", "Alice"));
+		assertThat(plan).contains("PRIMARY_KEY").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByOwnerShouldUseTheOwnerIndex() {
+		String plan = explain(OrderQueriesImpl.pageStatement(OrderQueriesImpl.OWNER_CONDITION, FIRST_PAGE),
+				pageParameters().addValue("owner", "Alice"));
+		assertThat(plan).contains("BE_ORDER_OWNER_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByProductIgnoreCaseShouldUseTheProductIndex() {
+		String plan = explain(OrderQueriesImpl.pageStatement(OrderQueriesImpl.PRODUCT_CONDITION, FIRST_PAGE),
+				pageParameters().addValue("productType", "dogfood"));
+		assertThat(plan).contains("BE_ORDER_PRODUCT_KEY_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByOwnerAndProductIgnoreCaseShouldUseAnIndex() {
+		String plan = explain(
+				OrderQueriesImpl.pageStatement(OrderQueriesImpl.OWNER_CONDITION + " AND " + OrderQueriesImpl.PRODUCT_CONDITION, FIRST_PAGE),
+				pageParameters().addValue("owner", "Alice").addValue("productType", "dogfood"));
+		// either index narrows the rows down to one owner, or one product, in the listing order
+		assertThat(plan).containsAnyOf("BE_ORDER_OWNER_AMOUNT_ID", "BE_ORDER_PRODUCT_KEY_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findAllAfterShouldUseTheAmountIndex() throws NoSuchMethodException {
+		String plan = explain(query("findAllAfter", Double.class, Long.class, int.class), afterParameters());
+		assertThat(plan).contains("BE_ORDER_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByOwnerAfterShouldUseTheOwnerIndex() throws NoSuchMethodException {
+		String plan = explain(query("findByOwnerAfter", String.class, Double.class, Long.class, int.class),
+				afterParameters().addValue("owner", "Alice"));
+		assertThat(plan).contains("BE_ORDER_OWNER_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByProductIgnoreCaseAfterShouldUseTheProductIndex() throws NoSuchMethodException {
+		String plan = explain(query("findByProductIgnoreCaseAfter", String.class, Double.class, Long.class, int.class),
+				afterParameters().addValue("productType", "dogfood"));
+		assertThat(plan).contains("BE_ORDER_PRODUCT_KEY_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByOwnerAndProductIgnoreCaseAfterShouldUseAnIndex() throws NoSuchMethodException {
+		String plan = explain(query("findByOwnerAndProductIgnoreCaseAfter", String.class, String.class, Double.class, Long.class, int.class),
+				afterParameters().addValue("owner", "Alice").addValue("productType", "dogfood"));
+		assertThat(plan).containsAnyOf("BE_ORDER_OWNER_AMOUNT_ID", "BE_ORDER_PRODUCT_KEY_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	@Test
+	void findByFilterShouldUseAnIndex() {
+		OrderFilter filter = new OrderFilter(250.0, 1400.0, null, null, List.of(), List.of("Alice", "Cathy"), null, null);
+		String plan = explain(
+				OrderQueriesImpl.buildFilterStatement(FilterShape.of(FilterStatementType.PAGE, filter, null, OrderFields.ALL, FIRST_PAGE.getSort(), true)),
+				OrderQueriesImpl.filterParameters(filter, null).addValues(pageParameters().getValues()));
+		assertThat(plan).containsAnyOf("BE_ORDER_OWNER_AMOUNT_ID", "BE_ORDER_AMOUNT_ID").doesNotContain(TABLE_SCAN);
+	}
+
+
+	private String explain(String sql, MapSqlParameterSource parameters) {
+		return jdbcTemplate.queryForObject("EXPLAIN " + sql, parameters, String.class);
+	}
+
+
+	private static MapSqlParameterSource pageParameters() {
+		return new MapSqlParameterSource("limit", FIRST_PAGE.getPageSize()).addValue("offset", FIRST_PAGE.getOffset());
+	}
+
+
+	private static MapSqlParameterSource afterParameters() {
+		return new MapSqlParameterSource("amount", 450.0).addValue("id", 100L).addValue("limit", 20);
+	}
+
+
+	private static String query(String method, Class<?>... parameterTypes) throws NoSuchMethodException {
+		return OrderRepository.class.getMethod(method, parameterTypes).getAnnotation(Query.class).value();
+	}
+}
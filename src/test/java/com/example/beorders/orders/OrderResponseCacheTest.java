@@ -0,0 +1,167 @@
+package com.example.beorders.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.beorders.orders.OrderResponseCache.CachedOrder;
+import com.example.beorders.orders.OrderResponseCache.EvictionPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OrderResponseCacheTest {
+	private static final int ENTRY_SIZE = 128;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+
+	@Test
+	void shouldReturnTheCachedEncodingWithItsOwnerAndVersion() throws Exception {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+		Order order = order(1L);
+
+		cache.put(order, cache.stamp());
+		CachedOrder cached = cache.get(1L);
+
+		assertThat(objectMapper.readValue(cached.json(), Order.class)).isEqualTo(order);
+		assertThat(cached.owner()).isEqualTo("Alice");
+		assertThat(cached.version()).isEqualTo(3L);
+	}
+
+
+	@Test
+	void shouldEvictTheLeastRecentlyUsedOrder() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+		cache.put(order(1L), cache.stamp());
+		cache.put(order(2L), cache.stamp());
+
+		// reading 1 makes 2 the least recently used
+		cache.get(1L);
+		cache.put(order(3L), cache.stamp());
+
+		assertThat(cache.get(1L)).isNotNull();
+		assertThat(cache.get(2L)).isNull();
+		assertThat(cache.get(3L)).isNotNull();
+		assertThat(cache.evictions()).isEqualTo(1);
+	}
+
+
+	@Test
+	void shouldEvictTheOldestOrder() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.FIFO);
+		cache.put(order(1L), cache.stamp());
+		cache.put(order(2L), cache.stamp());
+
+		// reading 1 does not keep it: it is still the oldest
+		cache.get(1L);
+		cache.put(order(3L), cache.stamp());
+
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.get(2L)).isNotNull();
+		assertThat(cache.get(3L)).isNotNull();
+		assertThat(cache.evictions()).isEqualTo(1);
+	}
+
+
+	@Test
+	void shouldNotCacheAnOrderLargerThanASlot() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+		Order largeOrder = new Order(1L, 10.0, "Alice", "x".repeat(ENTRY_SIZE), 1, 3L);
+
+		CachedOrder encoded = cache.put(largeOrder, cache.stamp());
+
+		assertThat(encoded.json().length).isGreaterThan(ENTRY_SIZE);
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+
+	@Test
+	void shouldNotCacheAnOrderReadBeforeAnEviction() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+
+		// a reader misses and takes its stamp, then a writer changes the order before the reader puts it
+		long stamp = cache.stamp();
+		cache.evict(1L);
+		cache.put(order(1L), stamp);
+
+		assertThat(cache.get(1L)).isNull();
+
+		cache.put(order(1L), cache.stamp());
+		assertThat(cache.get(1L)).isNotNull();
+	}
+
+
+	@Test
+	void shouldReuseTheSlotOfAnEvictedOrder() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+		cache.put(order(1L), cache.stamp());
+		cache.put(order(2L), cache.stamp());
+
+		cache.evict(1L);
+		cache.put(order(3L), cache.stamp());
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.evictions()).isZero();
+		assertThat(cache.get(2L)).isNotNull();
+	}
+
+
+	@Test
+	void shouldNotCacheAnythingWhenDisabled() {
+		OrderResponseCache cache = new OrderResponseCache(objectMapper, false, 2, ENTRY_SIZE, EvictionPolicy.LRU);
+
+		cache.put(order(1L), cache.stamp());
+
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+
+	@Test
+	void shouldRefuseASizeThatDoesNotFitInOneBuffer() {
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new OrderResponseCache(objectMapper, true, 5_000_000, 512, EvictionPolicy.LRU))
+				.withMessageContaining("max-entries * entry-size");
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new OrderResponseCache(objectMapper, true, 0, ENTRY_SIZE, EvictionPolicy.LRU));
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new OrderResponseCache(objectMapper, true, 2, -1, EvictionPolicy.LRU));
+
+		// none of it matters when the cache is off
+		assertThat(new OrderResponseCache(objectMapper, false, 5_000_000, 512, EvictionPolicy.LRU).size()).isZero();
+	}
+
+
+	@Test
+	void shouldPublishItsMeters() {
+		OrderResponseCache cache = cache(2, EvictionPolicy.LRU);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		cache.bindTo(registry);
+
+		cache.get(1L);
+		cache.put(order(1L), cache.stamp());
+		cache.get(1L);
+		cache.get(1L);
+		cache.put(order(2L), cache.stamp());
+		cache.put(order(3L), cache.stamp());
+
+		assertThat(registry.get("cache.gets").tags("cache", "order-responses", "result", "hit").functionCounter().count()).isEqualTo(2);
+		assertThat(registry.get("cache.gets").tags("cache", "order-responses", "result", "miss").functionCounter().count()).isEqualTo(1);
+		assertThat(registry.get("cache.evictions").tags("cache", "order-responses").functionCounter().count()).isEqualTo(1);
+		assertThat(registry.get("cache.size").tags("cache", "order-responses").gauge().value()).isEqualTo(2);
+		assertThat(registry.get("cache.capacity").tags("cache", "order-responses").gauge().value()).isEqualTo(2 * ENTRY_SIZE);
+	}
+
+
+	private OrderResponseCache cache(int maxEntries, EvictionPolicy evictionPolicy) {
+		return new OrderResponseCache(objectMapper, true, maxEntries, ENTRY_SIZE, evictionPolicy);
+	}
+
+
+	private static Order order(Long id) {
+		return new Order(id, 10.0, "Alice", "Food", 1, 3L);
+	}
+}
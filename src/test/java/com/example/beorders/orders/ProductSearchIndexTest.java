@@ -0,0 +1,67 @@
+package com.example.beorders.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.beorders.orders.OrderFilter.ProductMatch;
+
+class ProductSearchIndexTest {
+	private static final int MAX_IDS = 10;
+
+
+	@Test
+	void shouldFindTheOrdersWhoseProductContainsOrStartsWithTheTerm() {
+		ProductSearchIndex index = ProductSearchIndex.of("shouldFind");
+		try {
+			index.put(100L, "GOLDEN RING");
+			index.put(105L, "RING WITH DIAMONDS");
+			index.put(300L, "DOGFOOD");
+
+			assertThat(index.search("ring", ProductMatch.CONTAINS, MAX_IDS)).containsExactly(100L, 105L);
+			assertThat(index.search("ring", ProductMatch.PREFIX, MAX_IDS)).containsExactly(105L);
+			assertThat(index.search("cat", ProductMatch.CONTAINS, MAX_IDS)).isEmpty();
+			// too short to have a trigram: the index cannot tell
+			assertThat(index.search("r", ProductMatch.CONTAINS, MAX_IDS)).isNull();
+		} finally {
+			ProductSearchIndex.release("shouldFind");
+		}
+	}
+
+
+	@Test
+	void shouldStartAnEmptyIndexOnceTheDatabaseIsReleased() {
+		ProductSearchIndex index = ProductSearchIndex.of("shouldRelease");
+		index.put(100L, "GOLDEN RING");
+		assertThat(ProductSearchIndex.of("shouldRelease")).isSameAs(index);
+
+		ProductSearchIndex.release("shouldRelease");
+
+		assertThat(index.search("ring", ProductMatch.CONTAINS, MAX_IDS)).isEmpty();
+		ProductSearchIndex newIndex = ProductSearchIndex.of("shouldRelease");
+		try {
+			assertThat(newIndex).isNotSameAs(index);
+			assertThat(newIndex.search("ring", ProductMatch.CONTAINS, MAX_IDS)).isEmpty();
+		} finally {
+			ProductSearchIndex.release("shouldRelease");
+		}
+	}
+
+
+	@Test
+	void shouldLeaveTheSearchesToTheTableBeyondTheMaximumNumberOfOrders() {
+		ProductSearchIndex index = ProductSearchIndex.of("shouldCap");
+		try {
+			index.limit(2);
+			index.put(100L, "GOLDEN RING");
+			index.put(105L, "RING WITH DIAMONDS");
+			assertThat(index.search("ring", ProductMatch.CONTAINS, MAX_IDS)).containsExactly(100L, 105L);
+
+			index.put(110L, "RING");
+
+			assertThat(index.search("ring", ProductMatch.CONTAINS, MAX_IDS)).isNull();
+		} finally {
+			ProductSearchIndex.release("shouldCap");
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.example.beorders.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+class CachingAuthenticationProviderTest {
+
+	// counts the passwords checked with BCrypt (at its lowest strength, to keep the test fast)
+	private final AtomicInteger bcryptChecks = new AtomicInteger();
+	private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4) {
+		@Override
+		public boolean matches(CharSequence rawPassword, String encodedPassword) {
+			bcryptChecks.incrementAndGet();
+			return super.matches(rawPassword, encodedPassword);
+		}
+	};
+
+	private final InMemoryUserDetailsManager users = new InMemoryUserDetailsManager(
+			User.withUsername("Alice").password(passwordEncoder.encode("alice")).roles("ORDER_OWNER").build());
+	private final VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+	private final CachingAuthenticationProvider provider = new CachingAuthenticationProvider(bcryptProvider(), cache);
+
+
+	@Test
+	void shouldSkipBCryptOnceTheCredentialsAreVerified() {
+		Authentication first = provider.authenticate(credentials("Alice", "alice"));
+		Authentication second = provider.authenticate(credentials("Alice", "alice"));
+
+		assertThat(bcryptChecks).hasValue(1);
+		assertThat(cache.hits()).isEqualTo(1);
+		assertThat(second.isAuthenticated()).isTrue();
+		assertThat(second.getName()).isEqualTo("Alice");
+		assertThat(second.getAuthorities()).map(GrantedAuthority::getAuthority).containsExactly("ROLE_ORDER_OWNER");
+		assertThat(second.getAuthorities()).isEqualTo(first.getAuthorities());
+	}
+
+
+	@Test
+	void shouldVerifyAWrongPasswordWithBCryptAndNeverCacheIt() {
+		provider.authenticate(credentials("Alice", "alice"));
+
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> provider.authenticate(credentials("Alice", "wrong")));
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> provider.authenticate(credentials("Alice", "wrong")));
+
+		assertThat(bcryptChecks).hasValue(3);
+		assertThat(cache.hits()).isZero();
+	}
+
+
+	@Test
+	void shouldVerifyAgainWithBCryptOnceThePasswordChanges() {
+		provider.authenticate(credentials("Alice", "alice"));
+
+		users.updateUser(User.withUsername("Alice").password(passwordEncoder.encode("secret")).roles("ORDER_OWNER").build());
+
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> provider.authenticate(credentials("Alice", "alice")));
+		assertThat(provider.authenticate(credentials("Alice", "secret")).isAuthenticated()).isTrue();
+		assertThat(bcryptChecks).hasValue(3);
+	}
+
+
+	@Test
+	void shouldVerifyAgainWithBCryptOnceTheRolesChange() {
+		provider.authenticate(credentials("Alice", "alice"));
+		String encodedPassword = users.loadUserByUsername("Alice").getPassword();
+
+		users.updateUser(User.withUsername("Alice").password(encodedPassword).roles("ADMIN").build());
+
+		Authentication authentication = provider.authenticate(credentials("Alice", "alice"));
+		assertThat(authentication.getAuthorities()).map(GrantedAuthority::getAuthority).containsExactly("ROLE_ADMIN");
+		assertThat(bcryptChecks).hasValue(2);
+	}
+
+
+	private DaoAuthenticationProvider bcryptProvider() {
+		DaoAuthenticationProvider bcryptProvider = new DaoAuthenticationProvider();
+		bcryptProvider.setUserDetailsService(users);
+		bcryptProvider.setPasswordEncoder(passwordEncoder);
+		return bcryptProvider;
+	}
+
+
+	private static UsernamePasswordAuthenticationToken credentials(String username, String password) {
+		return UsernamePasswordAuthenticationToken.unauthenticated(username, password);
+	}
+}
@@ -0,0 +1,117 @@
+package com.example.beorders.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class VerifiedCredentialCacheTest {
+	private final InMemoryUserDetailsManager users = new InMemoryUserDetailsManager(
+			user("Alice", "{noop}alice", "ORDER_OWNER"),
+			user("Cathy", "{noop}cathy", "ORDER_OWNER"),
+			user("Admin", "{noop}admin", "ADMIN"));
+
+
+	@Test
+	void shouldReturnTheUserOfVerifiedCredentials() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+
+		assertThat(cache.getVerifiedUser("Alice", "alice").getUsername()).isEqualTo("Alice");
+		assertThat(cache.getVerifiedUser("Alice", "wrong")).isNull();
+		assertThat(cache.getVerifiedUser("Cathy", "cathy")).isNull();
+		assertThat(cache.hits()).isEqualTo(1);
+		assertThat(cache.misses()).isEqualTo(2);
+	}
+
+
+	@Test
+	void shouldForgetTheCredentialsWhenThePasswordHashChanges() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+
+		users.updateUser(user("Alice", "{noop}secret", "ORDER_OWNER"));
+
+		assertThat(cache.getVerifiedUser("Alice", "alice")).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+
+	@Test
+	void shouldForgetTheCredentialsWhenTheRolesChange() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+
+		users.updateUser(user("Alice", "{noop}alice", "ADMIN"));
+
+		assertThat(cache.getVerifiedUser("Alice", "alice")).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+
+	@Test
+	void shouldForgetTheCredentialsOfARemovedUser() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+
+		users.deleteUser("Alice");
+
+		assertThat(cache.getVerifiedUser("Alice", "alice")).isNull();
+	}
+
+
+	@Test
+	void shouldForgetTheCredentialsOnceTheyExpire() throws InterruptedException {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMillis(1), 10);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+
+		Thread.sleep(10);
+
+		assertThat(cache.getVerifiedUser("Alice", "alice")).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+
+	@Test
+	void shouldNotKeepMoreCredentialsThanItsMaxSize() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 2);
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+		cache.put("Cathy", "cathy", users.loadUserByUsername("Cathy"));
+		cache.put("Admin", "admin", users.loadUserByUsername("Admin"));
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.evictions()).isEqualTo(1);
+		assertThat(cache.getVerifiedUser("Admin", "admin")).isNotNull();
+
+		// verifying again the credentials already cached takes no room
+		cache.put("Admin", "admin", users.loadUserByUsername("Admin"));
+		assertThat(cache.evictions()).isEqualTo(1);
+	}
+
+
+	@Test
+	void shouldPublishItsMeters() {
+		VerifiedCredentialCache cache = new VerifiedCredentialCache(users, Duration.ofMinutes(5), 10);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		cache.bindTo(registry);
+
+		cache.put("Alice", "alice", users.loadUserByUsername("Alice"));
+		cache.getVerifiedUser("Alice", "alice");
+		cache.getVerifiedUser("Alice", "wrong");
+
+		assertThat(registry.get("cache.gets").tags("cache", "verified-credentials", "result", "hit").functionCounter().count()).isEqualTo(1);
+		assertThat(registry.get("cache.gets").tags("cache", "verified-credentials", "result", "miss").functionCounter().count()).isEqualTo(1);
+		assertThat(registry.get("cache.size").tags("cache", "verified-credentials").gauge().value()).isEqualTo(1);
+	}
+
+
+	private static UserDetails user(String username, String password, String role) {
+		return User.withUsername(username).password(password).roles(role).build();
+	}
+}